@@ -0,0 +1,132 @@
+package com.myapp.demo.tools;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.Result;
+import com.uis.fastzxing.common.Scanner;
+import com.uis.fastzxing.decode.FrameRecorder;
+import com.uis.fastzxing.decode.FrameRecording;
+import com.uis.fastzxing.decode.ScanEngine;
+import com.uis.fastzxing.decode.ScanFrame;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Feeds a {@link FrameRecorder} file back through a {@link ScanEngine}, the path the decode
+ * workers use, oldest frame first and as fast as it decodes, without a camera or Android. Frames
+ * are cropped to their recorded framing rect and orientation like live frames, then go through
+ * the same filters, decode region and readers. A desktop tool, kept out of the library; run it
+ * on a plain JVM with zxing core and the library classes on the class path:
+ *
+ * <pre>
+ * java com.myapp.demo.tools.FrameReplay frames.rec [--continuous] [--no-filters]
+ * </pre>
+ */
+public final class FrameReplay implements ScanEngine.Callback {
+
+    private final ScanEngine scanEngine;
+    private final boolean continuous;
+    private final ScanFrame frame = new ScanFrame();
+    private PrintStream out;
+    private int decoded;
+    private long sequence;
+
+    /**
+     * @param formats    formats to decode, or null for those the scanner uses by default
+     * @param continuous whether every code in a frame is decoded
+     * @param filters    whether the blur and unchanged scene filters run, as they do live
+     */
+    public FrameReplay(Collection<BarcodeFormat> formats, boolean continuous, boolean filters) {
+        Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
+        if (formats != null) {
+            hints.put(DecodeHintType.POSSIBLE_FORMATS, formats);
+        }
+        scanEngine = new ScanEngine(hints);
+        //录制的帧是同一路画面，与实时解码一样收窄解码区域
+        scanEngine.getSharpnessFilter().setEnabled(filters);
+        scanEngine.getDuplicateFilter().setEnabled(filters);
+        scanEngine.getRoiTracker().setEnabled(true);
+        this.continuous = continuous;
+    }
+
+    /**
+     * Replays every complete frame of the file and prints one line per frame and a summary.
+     *
+     * @return number of frames that produced a result
+     */
+    public int replay(File path, PrintStream out) throws IOException {
+        FrameRecording recording = new FrameRecording(path);
+        this.out = out;
+        int[] rect = new int[4];
+        decoded = 0;
+        long totalNanos = 0;
+        int count = recording.size();
+        for (int i = 0; i < count; i++) {
+            recording.getFramingRect(i, rect);
+            //直接在映射上解码
+            frame.setData(recording.getBuffer(i), recording.getWidth(i), recording.getHeight(i))
+                    .setRotation(recording.getOrientation(i))
+                    .setRoi(rect[0], rect[1], rect[2], rect[3])
+                    .setTimestamp(recording.getCaptureNanos(i));
+            sequence = recording.getSequence(i);
+            long start = System.nanoTime();
+            scanEngine.decode(frame, continuous, this);
+            long nanos = System.nanoTime() - start;
+            totalNanos += nanos;
+            out.println(String.format(Locale.US, "%.2f ms", nanos / 1e6));
+        }
+        out.println(String.format(Locale.US, "%d/%d frames decoded, %.2f ms per frame",
+                decoded, count, count == 0 ? 0 : totalNanos / 1e6 / count));
+        return decoded;
+    }
+
+    @Override
+    public void onDecoded(ScanFrame frame, Result[] results) {
+        decoded++;
+        out.print(String.format(Locale.US, "#%d %dx%d ", sequence,
+                frame.getWidth(), frame.getHeight()));
+        for (Result result : results) {
+            out.print(result.getBarcodeFormat() + " \"" + result.getText() + "\" ");
+        }
+    }
+
+    @Override
+    public void onFailed(ScanFrame frame, int failReason) {
+        out.print(String.format(Locale.US, "#%d %dx%d %s ", sequence,
+                frame.getWidth(), frame.getHeight(), failReasonName(failReason)));
+    }
+
+    private static String failReasonName(int failReason) {
+        switch (failReason) {
+            case Scanner.FailReason.BLURRY:
+                return "BLURRY";
+            case Scanner.FailReason.DUPLICATE:
+                return "DUPLICATE";
+            default:
+                return "NOT_FOUND";
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: FrameReplay <recording> [--continuous] [--no-filters]");
+            System.exit(2);
+        }
+        boolean continuous = false;
+        boolean filters = true;
+        for (int i = 1; i < args.length; i++) {
+            if ("--continuous".equals(args[i])) {
+                continuous = true;
+            } else if ("--no-filters".equals(args[i])) {
+                filters = false;
+            }
+        }
+        new FrameReplay(null, continuous, filters).replay(new File(args[0]), System.out);
+    }
+}
@@ -0,0 +1,226 @@
+package com.myapp.demo.tools;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.MultiFormatWriter;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import com.uis.fastzxing.camera.PreviewCrop;
+import com.uis.fastzxing.decode.ScanEngine;
+import com.uis.fastzxing.decode.ScanFrame;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compares decoding a frame held outside the Java heap in place, through
+ * {@link com.uis.fastzxing.camera.ByteBufferLuminanceSource}, against copying it into a byte[]
+ * for a {@link com.google.zxing.PlanarYUVLuminanceSource} first, for heap, direct, strided and
+ * memory-mapped frames. Each case is timed building the framing rect crop and reading its
+ * matrix, which is what the binarizer does, and decoding the frame through a {@link ScanEngine}.
+ * A desktop tool, kept out of the library; run it on a plain JVM with zxing core and the library
+ * classes on the class path:
+ *
+ * <pre>
+ * java com.myapp.demo.tools.LuminanceBenchmark [width height [iterations]]
+ * </pre>
+ */
+public final class LuminanceBenchmark {
+
+    private static final String CONTENTS = "https://github.com/luiing/FastZxing";
+    private static final int WARMUP = 50;
+
+    private final int width;
+    private final int height;
+    private final int iterations;
+    private final int left;
+    private final int top;
+    private final int right;
+    private final int bottom;
+    private final byte[] frame;
+    private final byte[] copy;
+    private final ScanEngine scanEngine = new ScanEngine();
+    private final ScanFrame scanFrame = new ScanFrame();
+    private long sink;
+
+    public LuminanceBenchmark(int width, int height, int iterations) {
+        this.width = width;
+        this.height = height;
+        this.iterations = iterations;
+        //扫描框为画面的 5/8，与相机默认一致
+        left = width * 3 / 16;
+        top = height * 3 / 16;
+        right = width - left;
+        bottom = height - top;
+        frame = renderFrame();
+        copy = new byte[width * height];
+        scanEngine.getSharpnessFilter().setEnabled(false);
+        scanEngine.getDuplicateFilter().setEnabled(false);
+        scanEngine.setPyramid(false);
+    }
+
+    /**
+     * Runs every case and prints milliseconds per frame.
+     */
+    public void run(PrintStream out) throws IOException {
+        out.println(String.format(Locale.US, "%dx%d, %d iterations", width, height, iterations));
+        out.println(String.format(Locale.US, "%-26s %10s %10s", "case", "crop ms", "decode ms"));
+        measure(out, "heap byte[]", ByteBuffer.wrap(frame), width, 1, false);
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(frame.length);
+        direct.put(frame).clear();
+        measure(out, "direct, copied", direct, width, 1, true);
+        measure(out, "direct, in place", direct, width, 1, false);
+
+        //行尾填充并隔像素存放，如部分设备的 YUV_420_888 平面
+        int pixelStride = 2;
+        int rowStride = width * pixelStride + 64;
+        ByteBuffer strided = ByteBuffer.allocateDirect(rowStride * height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                strided.put(y * rowStride + x * pixelStride, frame[y * width + x]);
+            }
+        }
+        measure(out, "strided, copied", strided, rowStride, pixelStride, true);
+        measure(out, "strided, in place", strided, rowStride, pixelStride, false);
+
+        File file = File.createTempFile("luminance", ".yuv");
+        RandomAccessFile mappedFile = new RandomAccessFile(file, "rw");
+        try {
+            ByteBuffer mapped = mappedFile.getChannel()
+                    .map(FileChannel.MapMode.READ_WRITE, 0, frame.length);
+            mapped.put(frame).clear();
+            measure(out, "mapped, copied", mapped, width, 1, true);
+            measure(out, "mapped, in place", mapped, width, 1, false);
+        } finally {
+            mappedFile.close();
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+        //使用读取结果，避免被 JIT 优化掉
+        if (sink == 42) {
+            out.println();
+        }
+    }
+
+    private void measure(PrintStream out, String name, ByteBuffer plane, int rowStride,
+                         int pixelStride, boolean copied) {
+        boolean decoded = true;
+        for (int i = 0; i < WARMUP; i++) {
+            sink += crop(plane, rowStride, pixelStride, copied).getMatrix().length;
+            decoded &= decode(plane, rowStride, pixelStride, copied);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += crop(plane, rowStride, pixelStride, copied).getMatrix().length;
+        }
+        long cropNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            decoded &= decode(plane, rowStride, pixelStride, copied);
+        }
+        long decodeNanos = System.nanoTime() - start;
+        out.println(String.format(Locale.US, "%-26s %10.3f %10.3f%s", name,
+                cropNanos / 1e6 / iterations, decodeNanos / 1e6 / iterations,
+                decoded ? "" : " (not decoded)"));
+    }
+
+    private LuminanceSource crop(ByteBuffer plane, int rowStride, int pixelStride,
+                                 boolean copied) {
+        if (plane.hasArray() && !copied) {
+            return PreviewCrop.build(plane.array(), width, height, left, top, right, bottom,
+                    false, false);
+        }
+        if (copied) {
+            return PreviewCrop.build(copyPlane(plane, rowStride, pixelStride), width, height, left,
+                    top, right, bottom, false, false);
+        }
+        return PreviewCrop.build(plane, width, height, rowStride, pixelStride, left, top, right,
+                bottom, false, false);
+    }
+
+    private boolean decode(ByteBuffer plane, int rowStride, int pixelStride, boolean copied) {
+        if (plane.hasArray() && !copied) {
+            scanFrame.setData(plane.array(), width, height);
+        } else if (copied) {
+            scanFrame.setData(copyPlane(plane, rowStride, pixelStride), width, height);
+        } else {
+            scanFrame.setData(plane, width, height, rowStride, pixelStride);
+        }
+        scanFrame.setRoi(left, top, right, bottom);
+        return scanEngine.decode(scanFrame) != null;
+    }
+
+    /**
+     * What an off-heap frame cost before it could be read in place: a copy of the plane onto
+     * the heap, row by row and without the strides.
+     */
+    private byte[] copyPlane(ByteBuffer plane, int rowStride, int pixelStride) {
+        ByteBuffer view = plane.duplicate();
+        if (pixelStride == 1 && rowStride == width) {
+            view.clear();
+            view.get(copy, 0, width * height);
+            return copy;
+        }
+        int offset = 0;
+        for (int y = 0; y < height; y++) {
+            int index = y * rowStride;
+            if (pixelStride == 1) {
+                view.position(index);
+                view.get(copy, offset, width);
+                offset += width;
+                continue;
+            }
+            for (int x = 0; x < width; x++) {
+                copy[offset++] = view.get(index);
+                index += pixelStride;
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * An NV21 frame with a QR code in the middle of the framing rect.
+     */
+    private byte[] renderFrame() {
+        byte[] data = new byte[width * height * 3 / 2];
+        Arrays.fill(data, (byte) 200);
+        int size = Math.min(right - left, bottom - top) * 3 / 4;
+        Map<EncodeHintType, Object> hints = new EnumMap<>(EncodeHintType.class);
+        hints.put(EncodeHintType.MARGIN, 2);
+        BitMatrix matrix;
+        try {
+            matrix = new MultiFormatWriter().encode(CONTENTS, BarcodeFormat.QR_CODE, size, size,
+                    hints);
+        } catch (WriterException we) {
+            throw new IllegalStateException(we);
+        }
+        int originX = (width - matrix.getWidth()) / 2;
+        int originY = (height - matrix.getHeight()) / 2;
+        for (int y = 0; y < matrix.getHeight(); y++) {
+            for (int x = 0; x < matrix.getWidth(); x++) {
+                if (matrix.get(x, y)) {
+                    data[(originY + y) * width + originX + x] = (byte) 30;
+                }
+            }
+        }
+        return data;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int width = args.length >= 2 ? Integer.parseInt(args[0]) : 1280;
+        int height = args.length >= 2 ? Integer.parseInt(args[1]) : 720;
+        int iterations = args.length >= 3 ? Integer.parseInt(args[2]) : 200;
+        new LuminanceBenchmark(width, height, iterations).run(System.out);
+    }
+}
@@ -0,0 +1,17 @@
+package com.uis.fastzxing;
+
+import com.google.zxing.Result;
+import com.google.zxing.client.result.ParsedResult;
+
+/**
+ * 连续扫码模式下，每帧新识别出的条码一次回调
+ */
+public interface OnMultiScannerCompletionListener {
+    /**
+     * 一帧中识别出、且近期未回调过的全部条码
+     *
+     * @param rawResults    扫描结果
+     * @param parsedResults 与 rawResults 一一对应的转换结果
+     */
+    void OnMultiScannerCompletion(Result[] rawResults, ParsedResult[] parsedResults);
+}
@@ -1,9 +1,11 @@
 package com.uis.fastzxing;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Paint;
+import android.preference.PreferenceManager;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.SurfaceHolder;
@@ -11,11 +13,30 @@ import android.view.SurfaceView;
 import android.widget.FrameLayout;
 
 import com.google.zxing.BarcodeFormat;
+import com.google.zxing.LuminanceSource;
 import com.google.zxing.Result;
 import com.google.zxing.ResultPoint;
+import com.google.zxing.client.result.ParsedResult;
 import com.uis.fastzxing.camera.CameraManager;
+import com.uis.fastzxing.camera.FrameSource;
+import com.uis.fastzxing.camera.FrontLightMode;
+import com.uis.fastzxing.camera.PreviewSizePolicy;
+import com.uis.fastzxing.camera.SyntheticFrameSource;
+import com.uis.fastzxing.common.ScanMetrics;
+import com.uis.fastzxing.common.ScanTracer;
 import com.uis.fastzxing.common.Scanner;
+import com.uis.fastzxing.decode.BinarizerStrategy;
 import com.uis.fastzxing.decode.DecodeFormatManager;
+import com.uis.fastzxing.decode.DecodeThread;
+import com.uis.fastzxing.decode.DecodedFrame;
+import com.uis.fastzxing.decode.DuplicateFilter;
+import com.uis.fastzxing.decode.FormatScheduler;
+import com.uis.fastzxing.decode.FrameRecorder;
+import com.uis.fastzxing.decode.ResultCache;
+import com.uis.fastzxing.decode.RoiTracker;
+import com.uis.fastzxing.decode.ScanEngine;
+import com.uis.fastzxing.decode.SharpnessFilter;
+import com.uis.fastzxing.decode.ThumbnailRenderer;
 
 import java.util.Collection;
 
@@ -25,6 +46,7 @@ import java.util.Collection;
 public class ScannerView extends FrameLayout implements SurfaceHolder.Callback {
 
     private static final String TAG = ScannerView.class.getSimpleName();
+    private static final String KEY_FORMAT_HITS = "preferences_format_hits_";
 
     private SurfaceView mSurfaceView;
     private ViewfinderView mViewfinderView;
@@ -36,12 +58,36 @@ public class ScannerView extends FrameLayout implements SurfaceHolder.Callback {
     private BeepManager mBeepManager;
     private int mMediaResId;
     private OnScannerCompletionListener mScannerCompletionListener;
+    private OnMultiScannerCompletionListener mMultiScannerCompletionListener;
     private OnCameraOpenListener onCameraOpenListener;
 
     private int laserFrameWidth, laserFrameHeight;//扫描框大小
     private int laserFrameTopMargin;//扫描框离屏幕上方距离
     private Collection<BarcodeFormat> decodeFormats;//解码类型
     private boolean mShowResThumbnail = false;//扫描成功是否显示缩略图
+    private int decodeWorkerCount = DecodeThread.DEFAULT_WORKER_COUNT;//并行解码线程数
+    private boolean pipelinedDecode = true;//相机持续出帧，解码线程总是取最新一帧
+    private boolean pyramidDecode = true;//先解半分辨率画面，需要时再解原图
+    private boolean continuousScan = false;//连续扫码，一帧识别多个条码
+    private final ResultCache resultCache = new ResultCache();//连续扫码时近期已回调的条码
+    private final ThumbnailRenderer thumbnailRenderer = new ThumbnailRenderer();//复用同一张位图
+    private DecodedFrame decodedFrame;//扫描成功回调期间可绘制缩略图的预览帧
+    private Bitmap resultThumbnail;
+    private final BinarizerStrategy binarizerStrategy = new BinarizerStrategy();//二值化策略，跨会话保留命中统计
+    private final FormatScheduler formatScheduler = new FormatScheduler();//按各格式命中次数安排解码顺序
+    private final SharpnessFilter sharpnessFilter = new SharpnessFilter();//跳过模糊帧
+    private final DuplicateFilter duplicateFilter = new DuplicateFilter();//跳过未变化的画面
+    private final RoiTracker roiTracker = new RoiTracker();//按候选点收窄解码区域
+    private boolean persistFormatHits = false;//格式命中次数是否保存到 SharedPreferences
+    private ScanMetrics scanMetrics;//各阶段耗时统计，null 不统计
+    private ScanTracer scanTracer;//逐帧事件记录，null 不记录
+    private FrameRecorder frameRecorder;//录制解码的预览帧，供离线回放
+    private FrameSource frameSource;//替代相机的帧来源，null 使用相机
+    private int cameraBackend = CameraManager.BACKEND_AUTO;//相机接口
+    private boolean cacheCameraConfig = true;//复用本机上次协商好的相机参数
+    private PreviewSizePolicy previewSizePolicy;//预览尺寸策略，null 为贴近屏幕分辨率
+    private FrontLightMode frontLightMode;//补光模式，null 为读取偏好设置
+    private boolean autoZoom = false;//码太小时自动放大
 
     public ScannerView(Context context) {
         this(context, null);
@@ -73,8 +119,25 @@ public class ScannerView extends FrameLayout implements SurfaceHolder.Callback {
     }
 
     public void onResume() {
+        if (frameSource != null) {
+            //不打开相机，直接从指定来源取帧解码
+            mCameraManager = null;
+            mViewfinderView.setCameraManager(null);
+            if (mBeepManager != null) mBeepManager.updatePrefs();
+            mScannerViewHandler = new ScannerViewHandler(this, decodeFormats, frameSource,
+                    decodeWorkerCount, pipelinedDecode);
+            onCameraOpen(true);
+            return;
+        }
         mCameraManager = new CameraManager(getContext());
         mCameraManager.setLaserFrameTopMargin(laserFrameTopMargin);//扫描框与屏幕距离
+        mCameraManager.setScanMetrics(scanMetrics);
+        mCameraManager.setScanTracer(scanTracer);
+        mCameraManager.setBackend(cameraBackend);
+        mCameraManager.setUseConfigCache(cacheCameraConfig);
+        mCameraManager.setPreviewSizePolicy(previewSizePolicy);
+        mCameraManager.setFrontLightMode(frontLightMode);
+        mCameraManager.setAutoZoom(autoZoom);
         mViewfinderView.setCameraManager(mCameraManager);
         if (mBeepManager != null) mBeepManager.updatePrefs();
 
@@ -93,6 +156,20 @@ public class ScannerView extends FrameLayout implements SurfaceHolder.Callback {
             if (mScannerViewHandler != null) {
                 mScannerViewHandler.quitSynchronously();
                 mScannerViewHandler = null;
+                Log.i(TAG, binarizerStrategy.toString());
+                Log.i(TAG, formatScheduler.toString());
+                Log.i(TAG, sharpnessFilter.toString());
+                Log.i(TAG, duplicateFilter.toString());
+                Log.i(TAG, roiTracker.toString());
+                if (scanMetrics != null) {
+                    Log.i(TAG, scanMetrics.toString());
+                }
+            }
+            if (persistFormatHits) {
+                saveFormatHits();
+            }
+            if (frameRecorder != null) {
+                frameRecorder.flush();
             }
             if (mBeepManager != null) {
                 mBeepManager.close();
@@ -110,6 +187,10 @@ public class ScannerView extends FrameLayout implements SurfaceHolder.Callback {
         if (surfaceHolder == null) {
             throw new IllegalStateException("No SurfaceHolder provided");
         }
+        if (mCameraManager == null) {
+            //使用了其他帧来源
+            return;
+        }
         if (mCameraManager.isOpen()) {
                 Log.w(TAG, "initCamera() while already open -- late SurfaceView callback?");
             return;
@@ -119,7 +200,8 @@ public class ScannerView extends FrameLayout implements SurfaceHolder.Callback {
             // Creating the mScannerViewHandler starts the preview, which can also throw a
             // RuntimeException.
             if (mScannerViewHandler == null) {
-                mScannerViewHandler = new ScannerViewHandler(this, decodeFormats, mCameraManager);
+                mScannerViewHandler = new ScannerViewHandler(this, decodeFormats, mCameraManager,
+                        decodeWorkerCount, pipelinedDecode);
             }
             //设置扫描框大小
             if (laserFrameWidth > 0 && laserFrameHeight > 0)
@@ -138,6 +220,39 @@ public class ScannerView extends FrameLayout implements SurfaceHolder.Callback {
         }
     }
 
+    /**
+     * 扫描成功，预览帧在回调结束后还给相机
+     *
+     * @param frame 结果及其预览帧
+     */
+    void handleDecode(DecodedFrame frame) {
+        decodedFrame = frame;
+        resultThumbnail = null;
+        try {
+            Bitmap barcode = mShowResThumbnail ? getResultThumbnail() : null;
+            handleDecode(frame.getResult(), barcode, thumbnailRenderer.getScaleFactor());
+        } finally {
+            decodedFrame = null;
+            frame.release();
+        }
+    }
+
+    /**
+     * 最近一次扫描成功的缩略图，在 OnScannerCompletion 回调中首次调用时才从预览帧绘制。
+     * 位图在下次扫描成功时复用，需长期保留请自行 copy
+     *
+     * @return 回调之外且未绘制过时为 null
+     */
+    public Bitmap getResultThumbnail() {
+        if (resultThumbnail == null && decodedFrame != null) {
+            LuminanceSource source = decodedFrame.getSource();
+            if (source != null) {
+                resultThumbnail = thumbnailRenderer.render(source);
+            }
+        }
+        return resultThumbnail;
+    }
+
     /**
      * A valid barcode has been found, so give an indication of success and show
      * the results.
@@ -169,6 +284,33 @@ public class ScannerView extends FrameLayout implements SurfaceHolder.Callback {
         }
     }
 
+    /**
+     * 连续扫码模式下一帧新识别出的条码
+     *
+     * @param rawResults 近期未回调过的条码
+     */
+    void handleDecodeMultiple(Result[] rawResults) {
+        ParsedResult[] parsedResults = new ParsedResult[rawResults.length];
+        for (int i = 0; i < rawResults.length; i++) {
+            parsedResults[i] = Scanner.parseResult(rawResults[i]);
+        }
+        if (mMultiScannerCompletionListener != null) {
+            mMultiScannerCompletionListener.OnMultiScannerCompletion(rawResults, parsedResults);
+        } else if (mScannerCompletionListener != null) {
+            for (int i = 0; i < rawResults.length; i++) {
+                mScannerCompletionListener.OnScannerCompletion(rawResults[i], parsedResults[i],
+                        null);
+            }
+        }
+        if (mMediaResId != 0) {
+            if (mBeepManager == null) {
+                mBeepManager = new BeepManager(getContext());
+                mBeepManager.setMediaResId(mMediaResId);
+            }
+            mBeepManager.playBeepSoundAndVibrate();
+        }
+    }
+
     /**
      * Superimpose a line for 1D or dots for 2D to highlight the key features of
      * the barcode.
@@ -243,6 +385,18 @@ public class ScannerView extends FrameLayout implements SurfaceHolder.Callback {
         return this;
     }
 
+    /**
+     * 连续扫码模式下按帧批量回调；未设置时逐个回调 OnScannerCompletionListener
+     *
+     * @param listener
+     * @return
+     */
+    public ScannerView setOnMultiScannerCompletionListener(
+            OnMultiScannerCompletionListener listener) {
+        this.mMultiScannerCompletionListener = listener;
+        return this;
+    }
+
     /**
      * 设置扫描线颜色
      *
@@ -380,7 +534,7 @@ public class ScannerView extends FrameLayout implements SurfaceHolder.Callback {
     }
 
     /**
-     * 切换闪光灯
+     * 切换闪光灯，自动补光模式下手动切换后本次不再自动开关
      *
      * @param mode true开；false关
      */
@@ -444,6 +598,329 @@ public class ScannerView extends FrameLayout implements SurfaceHolder.Callback {
         return this;
     }
 
+    /**
+     * 设置并行解码线程数，下次 onResume 生效
+     *
+     * @param workerCount 默认为CPU核数的一半，最多4个
+     * @return
+     */
+    public ScannerView setDecodeWorkerCount(int workerCount) {
+        this.decodeWorkerCount = Math.max(1, workerCount);
+        return this;
+    }
+
+    /**
+     * 选择相机接口：Camera2 直接从 YUV_420_888 图像的 Y 平面解码，不复制到数组；
+     * 自动模式在 API 21 及以上且相机非 LEGACY 级别时使用 Camera2，打开失败回退到 Camera1。下次 onResume 生效
+     *
+     * @param backend {@link CameraManager#BACKEND_AUTO}（默认）、{@link CameraManager#BACKEND_CAMERA1}
+     *                或 {@link CameraManager#BACKEND_CAMERA2}
+     * @return
+     */
+    public ScannerView setCameraBackend(int backend) {
+        this.cameraBackend = backend;
+        return this;
+    }
+
+    /**
+     * 是否复用本机上次协商好的相机参数（预览尺寸、帧率范围、对焦模式、旋转角度），
+     * 按系统版本、相机及屏幕缓存，打开相机时一次设置完成，省去逐个尺寸匹配及参数往返；
+     * 相机拒绝缓存的参数时自动清除并重新协商。仅 Camera1 有效。下次 onResume 生效
+     *
+     * @param cache 默认 true
+     * @return
+     */
+    public ScannerView setCacheCameraConfig(boolean cache) {
+        this.cacheCameraConfig = cache;
+        return this;
+    }
+
+    /**
+     * 预览尺寸选择策略，如 {@link com.uis.fastzxing.camera.DecodeBudgetPreviewSizePolicy}
+     * 按单帧解码耗时预算及扫描框内码的模块大小选最小够用的尺寸，高分辨率屏上可明显缩短解码耗时。
+     * 下次 onResume 生效
+     *
+     * @param policy 默认 null，选最贴近屏幕分辨率的尺寸
+     * @return
+     */
+    public ScannerView setPreviewSizePolicy(PreviewSizePolicy policy) {
+        this.previewSizePolicy = policy;
+        return this;
+    }
+
+    /**
+     * 补光模式：{@link FrontLightMode#AUTO} 按扫描框亮度自动开关闪光灯并调整曝光补偿，
+     * 光线暗时开灯，亮或反光时关灯。下次 onResume 生效
+     *
+     * @param mode 默认 null，读取偏好设置，未设置时为关
+     * @return
+     */
+    public ScannerView setFrontLightMode(FrontLightMode mode) {
+        this.frontLightMode = mode;
+        return this;
+    }
+
+    /**
+     * 是否自动变焦：二维码离得远、每个模块不足约 2.5 像素时逐步放大，
+     * 识别成功或数秒未识别后恢复。下次 onResume 生效
+     *
+     * @param autoZoom 默认 false
+     * @return
+     */
+    public ScannerView setAutoZoom(boolean autoZoom) {
+        this.autoZoom = autoZoom;
+        return this;
+    }
+
+    /**
+     * 是否流水线解码：相机持续出帧到单帧信箱，解码线程解完即取最新一帧；
+     * 关闭则每解完一帧再向相机请求下一帧。下次 onResume 生效
+     *
+     * @param pipelined 默认 true
+     * @return
+     */
+    public ScannerView setPipelinedDecode(boolean pipelined) {
+        this.pipelinedDecode = pipelined;
+        return this;
+    }
+
+    /**
+     * 二值化策略：默认先用 GlobalHistogram，HybridBinarizer 近期命中更多时改为优先，
+     * 首选失败时隔帧用另一种重试。可读取各方式的尝试、命中次数与耗时
+     *
+     * @return
+     */
+    public BinarizerStrategy getBinarizerStrategy() {
+        return binarizerStrategy;
+    }
+
+    /**
+     * 格式调度：命中多的格式每帧优先尝试，少见格式每隔若干帧才尝试一次
+     *
+     * @return
+     */
+    public FormatScheduler getFormatScheduler() {
+        return formatScheduler;
+    }
+
+    /**
+     * 是否跳过模糊帧：对焦未完成或手抖时画面清晰度低于近期峰值的一半则不解码
+     *
+     * @param skip 默认 true
+     * @return
+     */
+    public ScannerView setSkipBlurryFrames(boolean skip) {
+        sharpnessFilter.setEnabled(skip);
+        return this;
+    }
+
+    /**
+     * 模糊帧过滤统计
+     *
+     * @return
+     */
+    public SharpnessFilter getSharpnessFilter() {
+        return sharpnessFilter;
+    }
+
+    /**
+     * 是否跳过未变化的画面：同一画面连续多次解码失败后，画面不变则大部分帧不再解码，
+     * 适合固定安装的扫码台
+     *
+     * @param skip 默认 true
+     * @return
+     */
+    public ScannerView setSkipUnchangedFrames(boolean skip) {
+        duplicateFilter.setEnabled(skip);
+        return this;
+    }
+
+    /**
+     * 未变化画面过滤统计
+     *
+     * @return
+     */
+    public DuplicateFilter getDuplicateFilter() {
+        return duplicateFilter;
+    }
+
+    /**
+     * 是否跟踪解码区域：找到定位点后，随后的帧只解码定位点附近区域，
+     * 定位点超时未更新则恢复整个扫描框
+     *
+     * @param track 默认 true
+     * @return
+     */
+    public ScannerView setTrackDecodeRegion(boolean track) {
+        roiTracker.setEnabled(track);
+        return this;
+    }
+
+    /**
+     * 解码区域跟踪统计
+     *
+     * @return
+     */
+    public RoiTracker getRoiTracker() {
+        return roiTracker;
+    }
+
+    /**
+     * 是否保存各格式命中次数，下次启动沿用上次的解码顺序
+     *
+     * @param persist 默认 false
+     * @return
+     */
+    public ScannerView setPersistFormatHits(boolean persist) {
+        this.persistFormatHits = persist;
+        if (persist) {
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(getContext());
+            for (BarcodeFormat format : BarcodeFormat.values()) {
+                formatScheduler.setHits(format, prefs.getLong(KEY_FORMAT_HITS + format, 0));
+            }
+        }
+        return this;
+    }
+
+    private void saveFormatHits() {
+        SharedPreferences.Editor editor =
+                PreferenceManager.getDefaultSharedPreferences(getContext()).edit();
+        for (BarcodeFormat format : BarcodeFormat.values()) {
+            editor.putLong(KEY_FORMAT_HITS + format, formatScheduler.getHits(format));
+        }
+        editor.apply();
+    }
+
+    /**
+     * 是否金字塔解码：扫描框较大时先解 2x2 平均缩小的画面，缩小图发现定位点却解不出
+     * 或每隔几帧才解原分辨率。连续扫码只解原分辨率，不受此项影响。下次 onResume 生效
+     *
+     * @param pyramid 默认 true
+     * @return
+     */
+    public ScannerView setPyramidDecode(boolean pyramid) {
+        this.pyramidDecode = pyramid;
+        return this;
+    }
+
+    /**
+     * 是否连续扫码：识别一帧中的全部条码并批量回调，回调后继续扫描，无需 restartPreviewAfterDelay；
+     * 同一条码离开画面超过 setDuplicateResultTtl 设置的时长后才会再次回调。下次 onResume 生效
+     *
+     * @param continuous 默认 false
+     * @return
+     */
+    public ScannerView setContinuousScan(boolean continuous) {
+        this.continuousScan = continuous;
+        return this;
+    }
+
+    /**
+     * 连续扫码时同一条码的去重时长
+     *
+     * @param ttlMs 默认 5000 毫秒
+     * @return
+     */
+    public ScannerView setDuplicateResultTtl(long ttlMs) {
+        resultCache.setTtl(ttlMs);
+        return this;
+    }
+
+    /**
+     * 连续扫码时最多记住的条码数，超出则淘汰最久未见的
+     *
+     * @param capacity 默认 64
+     * @return
+     */
+    public ScannerView setDuplicateResultCapacity(int capacity) {
+        resultCache.setCapacity(capacity);
+        return this;
+    }
+
+    /**
+     * 清空连续扫码的去重记录，已上报的条码可再次回调
+     */
+    public void clearDuplicateResults() {
+        resultCache.clear();
+    }
+
+    /**
+     * 统计扫描各阶段耗时（排队、构建亮度源、解码、回调）、有效帧率、丢帧数与成功率，
+     * 统计本身不分配内存。下次 onResume 生效
+     *
+     * @param scanMetrics 默认 null 不统计
+     * @return
+     */
+    public ScannerView setScanMetrics(ScanMetrics scanMetrics) {
+        this.scanMetrics = scanMetrics;
+        return this;
+    }
+
+    public ScanMetrics getScanMetrics() {
+        return scanMetrics;
+    }
+
+    /**
+     * 记录预览回调、解码、结果回调及对焦周期的逐帧事件，可随时用
+     * {@link ScanTracer#writeChromeTrace} 导出为 Chrome/Perfetto 可打开的 JSON。下次 onResume 生效
+     *
+     * @param scanTracer 默认 null 不记录
+     * @return
+     */
+    public ScannerView setScanTracer(ScanTracer scanTracer) {
+        this.scanTracer = scanTracer;
+        return this;
+    }
+
+    public ScanTracer getScanTracer() {
+        return scanTracer;
+    }
+
+    /**
+     * 把解码线程处理的每一帧（含宽高、方向、扫描框）写入内存映射的环形文件，
+     * 可用 {@link com.uis.fastzxing.decode.FrameRecording} 读出，在电脑上离线回放。onPause 时刷到存储，
+     * 关闭由调用方负责。下次 onResume 生效
+     *
+     * @param frameRecorder 默认 null 不录制
+     * @return
+     */
+    public ScannerView setFrameRecorder(FrameRecorder frameRecorder) {
+        this.frameRecorder = frameRecorder;
+        return this;
+    }
+
+    public FrameRecorder getFrameRecorder() {
+        return frameRecorder;
+    }
+
+    /**
+     * 不打开相机，改从指定来源取帧解码，如 {@link SyntheticFrameSource} 生成的条码画面或
+     * {@link com.uis.fastzxing.decode.ReplayFrameSource} 回放的录制文件、图片目录，
+     * 便于在模拟器及自动化测试中复现扫码。此时不显示相机预览及扫描框。下次 onResume 生效
+     *
+     * @param frameSource 默认 null 使用相机
+     * @return
+     */
+    public ScannerView setFrameSource(FrameSource frameSource) {
+        this.frameSource = frameSource;
+        return this;
+    }
+
+    public FrameSource getFrameSource() {
+        return frameSource;
+    }
+
+    /**
+     * 可解码其他画面（如其他相机来源的帧）的引擎，与当前扫描共用格式及学习到的统计，
+     * 但不经过预览画面的模糊、重复画面过滤及解码区域收窄，线程安全
+     *
+     * @return 相机预览未开始时为 null
+     */
+    public ScanEngine getScanEngine() {
+        ScannerViewHandler handler = mScannerViewHandler;
+        return handler != null ? handler.getScanEngine() : null;
+    }
+
     /**
      * 设置扫描框线移动间距，每毫秒移动 moveSpeed 像素
      *
@@ -477,4 +954,16 @@ public class ScannerView extends FrameLayout implements SurfaceHolder.Callback {
     boolean getShowResThumbnail() {
         return mShowResThumbnail;
     }
+
+    boolean isPyramidDecode() {
+        return pyramidDecode;
+    }
+
+    boolean isContinuousScan() {
+        return continuousScan;
+    }
+
+    ResultCache getResultCache() {
+        return resultCache;
+    }
 }
@@ -16,17 +16,18 @@
 
 package com.uis.fastzxing;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
 
 import com.google.zxing.BarcodeFormat;
 import com.google.zxing.Result;
-import com.uis.fastzxing.camera.CameraManager;
+import com.uis.fastzxing.camera.FrameSource;
+import com.uis.fastzxing.common.ScanMetrics;
+import com.uis.fastzxing.common.ScanTracer;
 import com.uis.fastzxing.common.Scanner;
 import com.uis.fastzxing.decode.DecodeThread;
+import com.uis.fastzxing.decode.DecodedFrame;
+import com.uis.fastzxing.decode.ScanEngine;
 
 import java.util.Collection;
 
@@ -42,55 +43,82 @@ final class ScannerViewHandler extends Handler {
     private final ScannerView scannerView;
     private final DecodeThread decodeThread;
     private State state;
-    private final CameraManager cameraManager;
+    private final FrameSource frameSource;
 
     private enum State {
         PREVIEW, SUCCESS, DONE
     }
 
     ScannerViewHandler(ScannerView scannerView, Collection<BarcodeFormat> decodeFormats,
-                       CameraManager cameraManager) {
+                       FrameSource frameSource, int decodeWorkerCount,
+                       boolean pipelinedDecode) {
         this.scannerView = scannerView;
-        this.cameraManager = cameraManager;
+        this.frameSource = frameSource;
         //启动扫描线程
-        decodeThread = new DecodeThread(cameraManager, this, decodeFormats,
+        decodeThread = new DecodeThread(frameSource, this, decodeFormats,
                 new ViewfinderResultPointCallback(scannerView.getViewfinderView()),
-                scannerView.getShowResThumbnail());
-
+                decodeWorkerCount);
+        decodeThread.setPipelined(pipelinedDecode);
+        decodeThread.setPyramid(scannerView.isPyramidDecode());
+        decodeThread.setBinarizerStrategy(scannerView.getBinarizerStrategy());
+        decodeThread.setFormatScheduler(scannerView.getFormatScheduler());
+        decodeThread.setSharpnessFilter(scannerView.getSharpnessFilter());
+        decodeThread.setDuplicateFilter(scannerView.getDuplicateFilter());
+        decodeThread.setRoiTracker(scannerView.getRoiTracker());
+        decodeThread.setScanMetrics(scannerView.getScanMetrics());
+        decodeThread.setScanTracer(scannerView.getScanTracer());
+        decodeThread.setFrameRecorder(scannerView.getFrameRecorder());
+        if (scannerView.isContinuousScan()) {
+            decodeThread.setContinuous(scannerView.getResultCache());
+        }
         decodeThread.start();
+        //每个解码线程、等待帧及相机填充各占一个缓冲区
+        frameSource.setPreviewBufferCount(decodeThread.getWorkerCount() + 2);
         state = State.SUCCESS;
         //开启相机预览界面
-        cameraManager.startPreview();
+        frameSource.startPreview();
         //将preview回调函数与decodeHandler绑定、调用viewfinderView
         restartPreviewAndDecode();
     }
 
     @Override
     public void handleMessage(Message message) {
+        ScanTracer scanTracer = scannerView.getScanTracer();
+        if (scanTracer == null) {
+            handleScanMessage(message);
+            return;
+        }
+        scanTracer.begin("ScannerViewHandler", message.what);
+        try {
+            handleScanMessage(message);
+        } finally {
+            scanTracer.end("ScannerViewHandler");
+        }
+    }
+
+    private void handleScanMessage(Message message) {
         switch (message.what) {
             case Scanner.RESTART_PREVIEW:
                 restartPreviewAndDecode();
                 break;
             case Scanner.DECODE_SUCCEEDED:
-                state = State.SUCCESS;
-                Bundle bundle = message.getData();
-                Bitmap barcode = null;
-                float scaleFactor = 1.0f;
-                if (bundle != null) {
-                    byte[] compressedBitmap = bundle
-                            .getByteArray(DecodeThread.BARCODE_BITMAP);
-                    if (compressedBitmap != null && compressedBitmap.length > 0) {
-                        barcode = BitmapFactory.decodeByteArray(compressedBitmap,
-                                0, compressedBitmap.length, null);
-                        barcode = barcode.copy(Bitmap.Config.ARGB_8888, true);
-                    }
-                    scaleFactor = bundle.getFloat(DecodeThread.BARCODE_SCALED_FACTOR);
+                DecodedFrame frame = (DecodedFrame) message.obj;
+                ScanMetrics scanMetrics = scannerView.getScanMetrics();
+                if (scanMetrics != null) {
+                    scanMetrics.onResultDelivered(frame.getCaptureNanos(),
+                            frame.getDecodedNanos(), System.nanoTime());
+                }
+                if (state == State.DONE) {
+                    //已退出，只归还预览帧
+                    frame.release();
+                    break;
                 }
-                scannerView.handleDecode((Result) message.obj, barcode, scaleFactor);
+                state = State.SUCCESS;
+                scannerView.handleDecode(frame);
                 break;
-            case Scanner.DECODE_FAILED:
-                state = State.PREVIEW;
-                cameraManager.requestPreviewFrame(decodeThread.getHandler(), Scanner.DECODE);
+            case Scanner.DECODE_MULTIPLE_SUCCEEDED:
+                //连续扫码，不进入 SUCCESS 状态
+                scannerView.handleDecodeMultiple((Result[]) message.obj);
                 break;
             case Scanner.RETURN_SCAN_RESULT:
                 break;
@@ -99,25 +127,38 @@ final class ScannerViewHandler extends Handler {
         }
     }
 
+    ScanEngine getScanEngine() {
+        return decodeThread.getScanEngine();
+    }
+
     public void quitSynchronously() {
         state = State.DONE;
-        cameraManager.stopPreview();
+        frameSource.stopPreview();
         Message quit = Message.obtain(decodeThread.getHandler(), Scanner.QUIT);
         quit.sendToTarget();
-        try {
-            decodeThread.join(500L);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        //解码线程等全部工作线程解完手上的帧才退出，之后关闭相机才不会回收仍在读取的预览帧
+        boolean interrupted = false;
+        while (decodeThread.isAlive()) {
+            try {
+                decodeThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
         }
 
-        removeMessages(Scanner.DECODE_SUCCEEDED);
+        //DECODE_SUCCEEDED 持有预览帧，留待处理时归还
+        removeMessages(Scanner.DECODE_MULTIPLE_SUCCEEDED);
         removeMessages(Scanner.DECODE_FAILED);
     }
 
     private void restartPreviewAndDecode() {
         if (state == State.SUCCESS) {
             state = State.PREVIEW;
-            cameraManager.requestPreviewFrame(decodeThread.getHandler(), Scanner.DECODE);
+            //解码线程池自行向相机获取预览帧
+            Message.obtain(decodeThread.getHandler(), Scanner.RESTART_PREVIEW).sendToTarget();
             scannerView.drawViewfinder();
         }
     }
@@ -302,11 +302,8 @@ final class ViewfinderView extends View {
     }
 
     public void drawViewfinder() {
-        Bitmap resultBitmap = this.resultBitmap;
-        this.resultBitmap = null;
-        if (resultBitmap != null) {
-            resultBitmap.recycle();
-        }
+        //结果位图由 ThumbnailRenderer 复用，不回收
+        resultBitmap = null;
         invalidate();
     }
 
@@ -0,0 +1,156 @@
+package com.uis.fastzxing.camera;
+
+import com.google.zxing.LuminanceSource;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A crop of a luminance plane held in a {@link ByteBuffer}, typically the direct Y plane buffer
+ * of a YUV_420_888 {@link android.media.Image}, read in place. Rows may be padded
+ * ({@code rowStride}) and pixels interleaved ({@code pixelStride}), as camera planes often are.
+ * Optionally the crop is exposed as if the plane had been rotated 90 degrees clockwise, like
+ * {@link RotatedYUVLuminanceSource}, so portrait frames need no rotated copy either.
+ *
+ * <p>Not thread safe: a source reads through a private view of the buffer. Crop coordinates of a
+ * rotated source are in the rotated image; rotated pixel (x, y) is plane pixel
+ * (y, dataHeight - 1 - x).</p>
+ */
+public final class ByteBufferLuminanceSource extends LuminanceSource {
+
+  private final ByteBuffer buffer;
+  private final ByteBuffer view;
+  private final int dataWidth;
+  private final int dataHeight;
+  private final int rowStride;
+  private final int pixelStride;
+  private final int left;
+  private final int top;
+  private final boolean rotated;
+
+  /**
+   * @param buffer the plane; its position and limit are ignored
+   * @param dataWidth width of the plane in pixels
+   * @param dataHeight height of the plane in pixels
+   * @param rowStride bytes from one row to the next
+   * @param pixelStride bytes from one pixel to the next
+   * @param left left of the crop, in the rotated image if {@code rotated}
+   * @param top top of the crop
+   * @param width width of the crop
+   * @param height height of the crop
+   * @param rotated whether the plane is seen rotated 90 degrees clockwise
+   */
+  public ByteBufferLuminanceSource(ByteBuffer buffer,
+                                   int dataWidth,
+                                   int dataHeight,
+                                   int rowStride,
+                                   int pixelStride,
+                                   int left,
+                                   int top,
+                                   int width,
+                                   int height,
+                                   boolean rotated) {
+    super(width, height);
+    int visibleWidth = rotated ? dataHeight : dataWidth;
+    int visibleHeight = rotated ? dataWidth : dataHeight;
+    if (left < 0 || top < 0 || left + width > visibleWidth || top + height > visibleHeight) {
+      throw new IllegalArgumentException("Crop rectangle does not fit within image data.");
+    }
+    if (pixelStride < 1 || rowStride < (dataWidth - 1) * pixelStride + 1
+        || (long) (dataHeight - 1) * rowStride + (dataWidth - 1) * pixelStride
+        >= buffer.capacity()) {
+      throw new IllegalArgumentException("Strides do not fit within the buffer.");
+    }
+    this.buffer = buffer;
+    this.view = buffer.duplicate();
+    this.view.clear();
+    this.dataWidth = dataWidth;
+    this.dataHeight = dataHeight;
+    this.rowStride = rowStride;
+    this.pixelStride = pixelStride;
+    this.left = left;
+    this.top = top;
+    this.rotated = rotated;
+  }
+
+  @Override
+  public byte[] getRow(int y, byte[] row) {
+    if (y < 0 || y >= getHeight()) {
+      throw new IllegalArgumentException("Requested row is outside the image: " + y);
+    }
+    int width = getWidth();
+    if (row == null || row.length < width) {
+      row = new byte[width];
+    }
+    if (rotated) {
+      // A rotated row is a plane column, walked bottom to top
+      int offset = (dataHeight - 1 - left) * rowStride + (top + y) * pixelStride;
+      for (int x = 0; x < width; x++) {
+        row[x] = view.get(offset);
+        offset -= rowStride;
+      }
+      return row;
+    }
+    int offset = (top + y) * rowStride + left * pixelStride;
+    if (pixelStride == 1) {
+      view.position(offset);
+      view.get(row, 0, width);
+      return row;
+    }
+    for (int x = 0; x < width; x++) {
+      row[x] = view.get(offset);
+      offset += pixelStride;
+    }
+    return row;
+  }
+
+  @Override
+  public byte[] getMatrix() {
+    int width = getWidth();
+    int height = getHeight();
+    byte[] matrix = new byte[width * height];
+    if (!rotated) {
+      byte[] row = null;
+      for (int y = 0; y < height; y++) {
+        if (pixelStride == 1) {
+          view.position((top + y) * rowStride + left);
+          view.get(matrix, y * width, width);
+        } else {
+          row = getRow(y, row);
+          System.arraycopy(row, 0, matrix, y * width, width);
+        }
+      }
+      return matrix;
+    }
+    // Read the plane row by row so the buffer side stays sequential
+    for (int x = 0; x < width; x++) {
+      int inputOffset = (dataHeight - 1 - left - x) * rowStride + top * pixelStride;
+      int outputOffset = x;
+      for (int y = 0; y < height; y++) {
+        matrix[outputOffset] = view.get(inputOffset);
+        inputOffset += pixelStride;
+        outputOffset += width;
+      }
+    }
+    return matrix;
+  }
+
+  @Override
+  public boolean isCropSupported() {
+    return true;
+  }
+
+  @Override
+  public LuminanceSource crop(int left, int top, int width, int height) {
+    return new ByteBufferLuminanceSource(buffer,
+                                         dataWidth,
+                                         dataHeight,
+                                         rowStride,
+                                         pixelStride,
+                                         this.left + left,
+                                         this.top + top,
+                                         width,
+                                         height,
+                                         rotated);
+  }
+
+}
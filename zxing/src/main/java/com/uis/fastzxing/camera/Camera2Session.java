@@ -0,0 +1,552 @@
+package com.uis.fastzxing.camera;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.util.Log;
+import android.util.Size;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import com.uis.fastzxing.common.ScanMetrics;
+import com.uis.fastzxing.common.ScanTracer;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * The Camera2 side of {@link CameraManager}. Frames come from an {@link ImageReader} in
+ * YUV_420_888 and are decoded straight from the Y plane's buffer, never copied into a byte[].
+ * The pipeline still passes frames around as byte[], so each lent {@link Image} is represented
+ * by an empty token array that goes back through {@link #releasePreviewFrame(byte[])}.
+ *
+ * <p>The reader holds one image more than may be lent out, so the newest frame can always be
+ * acquired and either handed on or closed at once; the camera never stalls on a busy decoder.
+ * All callbacks run on the camera thread.</p>
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+final class Camera2Session implements ImageReader.OnImageAvailableListener {
+
+  private static final String TAG = Camera2Session.class.getSimpleName();
+
+  /**
+   * The preview surface takes its fixed size on the next layout pass, so the first session
+   * may be refused.
+   */
+  private static final int MAX_SESSION_ATTEMPTS = 3;
+  private static final long SESSION_RETRY_DELAY_MS = 50L;
+
+  private final Context context;
+  private final CameraConfigurationManager configManager;
+  private final Handler cameraHandler;
+  private final android.hardware.camera2.CameraManager cameraService;
+  private CameraDevice device;
+  private CameraCaptureSession session;
+  private ImageReader imageReader;
+  private Surface previewSurface;
+  private int lendCapacity = 3;
+  private boolean flashAvailable;
+  private int afMode = CaptureRequest.CONTROL_AF_MODE_OFF;
+  private boolean torch;
+  private Rect activeArray;
+  private float maxZoom = 1.0f;
+  private float zoom = 1.0f;
+  private boolean previewing;
+  private final IdentityHashMap<byte[], Image> lent = new IdentityHashMap<>();
+  private final ArrayDeque<byte[]> tokens = new ArrayDeque<>();
+  private Handler previewHandler;
+  private int previewMessage;
+  private FrameReceiver frameReceiver;
+  private ScanMetrics scanMetrics;
+  private ScanTracer scanTracer;
+
+  Camera2Session(Context context, CameraConfigurationManager configManager,
+                 Handler cameraHandler) {
+    this.context = context;
+    this.configManager = configManager;
+    this.cameraHandler = cameraHandler;
+    this.cameraService = (android.hardware.camera2.CameraManager)
+        context.getSystemService(Context.CAMERA_SERVICE);
+  }
+
+  /**
+   * @return whether the camera has a native Camera2 implementation; LEGACY devices only wrap
+   * Camera1 and are better driven through it directly
+   */
+  static boolean isPreferred(Context context, int requestedCameraId) {
+    try {
+      android.hardware.camera2.CameraManager service = (android.hardware.camera2.CameraManager)
+          context.getSystemService(Context.CAMERA_SERVICE);
+      String id = findCameraId(service, requestedCameraId);
+      if (id == null) {
+        return false;
+      }
+      Integer level = service.getCameraCharacteristics(id)
+          .get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+      return level != null
+          && level != CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY;
+    } catch (CameraAccessException | RuntimeException e) {
+      return false;
+    }
+  }
+
+  /**
+   * @param requestedCameraId index of the camera, or negative for the first back camera
+   */
+  private static String findCameraId(android.hardware.camera2.CameraManager service,
+                                     int requestedCameraId) throws CameraAccessException {
+    String[] ids = service.getCameraIdList();
+    if (ids.length == 0) {
+      return null;
+    }
+    if (requestedCameraId >= 0) {
+      return requestedCameraId < ids.length ? ids[requestedCameraId] : null;
+    }
+    for (String id : ids) {
+      Integer facing = service.getCameraCharacteristics(id).get(CameraCharacteristics.LENS_FACING);
+      if (facing != null && facing == CameraCharacteristics.LENS_FACING_BACK) {
+        return id;
+      }
+    }
+    return ids[0];
+  }
+
+  /**
+   * Opens the camera, blocking until it is open, and picks the preview size.
+   */
+  void open(int requestedCameraId, SurfaceHolder holder) throws IOException {
+    final String id;
+    try {
+      id = findCameraId(cameraService, requestedCameraId);
+      if (id == null) {
+        throw new IOException("No camera " + requestedCameraId);
+      }
+      CameraCharacteristics characteristics = cameraService.getCameraCharacteristics(id);
+      configure(characteristics);
+    } catch (CameraAccessException cae) {
+      throw new IOException(cae);
+    }
+    Point cameraResolution = configManager.getCameraResolution();
+    holder.setFixedSize(cameraResolution.x, cameraResolution.y);
+    previewSurface = holder.getSurface();
+    torch = configManager.getFrontLightMode() == FrontLightMode.ON;
+
+    final CountDownLatch openLatch = new CountDownLatch(1);
+    final CameraDevice[] opened = new CameraDevice[1];
+    final RuntimeException[] failure = new RuntimeException[1];
+    cameraHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          cameraService.openCamera(id, new CameraDevice.StateCallback() {
+            @Override
+            public void onOpened(CameraDevice camera) {
+              opened[0] = camera;
+              openLatch.countDown();
+            }
+
+            @Override
+            public void onDisconnected(CameraDevice camera) {
+              camera.close();
+              onClosedUnexpectedly(camera);
+              openLatch.countDown();
+            }
+
+            @Override
+            public void onError(CameraDevice camera, int error) {
+              Log.w(TAG, "Camera " + camera.getId() + " error " + error);
+              camera.close();
+              onClosedUnexpectedly(camera);
+              openLatch.countDown();
+            }
+          }, cameraHandler);
+        } catch (CameraAccessException cae) {
+          failure[0] = new RuntimeException(cae);
+          openLatch.countDown();
+        } catch (RuntimeException re) {
+          failure[0] = re;
+          openLatch.countDown();
+        }
+      }
+    });
+    boolean interrupted = false;
+    while (true) {
+      try {
+        openLatch.await();
+        break;
+      } catch (InterruptedException ie) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    if (failure[0] != null) {
+      throw new IOException("Camera " + id + " failed to open", failure[0]);
+    }
+    if (opened[0] == null) {
+      throw new IOException("Camera " + id + " failed to open");
+    }
+    synchronized (this) {
+      device = opened[0];
+    }
+  }
+
+  private void configure(CameraCharacteristics characteristics) {
+    Integer sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+    Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
+    StreamConfigurationMap map =
+        characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+    List<Point> sizes = new ArrayList<>();
+    Size[] outputSizes = map == null ? null : map.getOutputSizes(ImageFormat.YUV_420_888);
+    if (outputSizes != null) {
+      for (Size size : outputSizes) {
+        sizes.add(new Point(size.getWidth(), size.getHeight()));
+      }
+    }
+    configManager.initFromCameraCharacteristics(
+        sensorOrientation == null ? 90 : sensorOrientation,
+        facing != null && facing == CameraCharacteristics.LENS_FACING_FRONT, sizes);
+    flashAvailable = Boolean.TRUE.equals(
+        characteristics.get(CameraCharacteristics.FLASH_INFO_AVAILABLE));
+    activeArray = characteristics.get(CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE);
+    Float maxDigitalZoom =
+        characteristics.get(CameraCharacteristics.SCALER_AVAILABLE_MAX_DIGITAL_ZOOM);
+    maxZoom = activeArray == null || maxDigitalZoom == null
+        ? 1.0f : Math.max(1.0f, maxDigitalZoom);
+    zoom = 1.0f;
+    int[] afModes = characteristics.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES);
+    afMode = CaptureRequest.CONTROL_AF_MODE_OFF;
+    if (afModes != null) {
+      for (int mode : afModes) {
+        if (mode == CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE) {
+          afMode = mode;
+          break;
+        }
+        if (mode == CaptureRequest.CONTROL_AF_MODE_AUTO) {
+          afMode = mode;
+        }
+      }
+    }
+  }
+
+  private synchronized void onClosedUnexpectedly(CameraDevice camera) {
+    if (device == camera) {
+      device = null;
+      session = null;
+    }
+  }
+
+  synchronized boolean isOpen() {
+    return device != null;
+  }
+
+  /**
+   * @param count how many frames the decoder may hold at once, from the next
+   *              {@link #startPreview()} on
+   */
+  synchronized void setLendCapacity(int count) {
+    lendCapacity = count;
+  }
+
+  synchronized void setScanMetrics(ScanMetrics scanMetrics) {
+    this.scanMetrics = scanMetrics;
+  }
+
+  synchronized void setScanTracer(ScanTracer scanTracer) {
+    this.scanTracer = scanTracer;
+  }
+
+  synchronized void startPreview() {
+    if (device == null || previewing) {
+      return;
+    }
+    Point cameraResolution = configManager.getCameraResolution();
+    if (imageReader == null || imageReader.getMaxImages() != lendCapacity + 1) {
+      if (imageReader != null) {
+        closeLentImages();
+        imageReader.close();
+      }
+      imageReader = ImageReader.newInstance(cameraResolution.x, cameraResolution.y,
+          ImageFormat.YUV_420_888, lendCapacity + 1);
+      imageReader.setOnImageAvailableListener(this, cameraHandler);
+      tokens.clear();
+      for (int i = 0; i < lendCapacity; i++) {
+        tokens.push(new byte[0]);
+      }
+    }
+    previewing = true;
+    createSession(0);
+  }
+
+  private synchronized void createSession(final int attempt) {
+    if (device == null || !previewing) {
+      return;
+    }
+    try {
+      device.createCaptureSession(Arrays.asList(previewSurface, imageReader.getSurface()),
+          new CameraCaptureSession.StateCallback() {
+            @Override
+            public void onConfigured(CameraCaptureSession configured) {
+              synchronized (Camera2Session.this) {
+                if (!previewing || device == null) {
+                  configured.close();
+                  return;
+                }
+                session = configured;
+                applyRequest();
+              }
+            }
+
+            @Override
+            public void onConfigureFailed(CameraCaptureSession failed) {
+              if (attempt + 1 < MAX_SESSION_ATTEMPTS) {
+                cameraHandler.postDelayed(new Runnable() {
+                  @Override
+                  public void run() {
+                    createSession(attempt + 1);
+                  }
+                }, SESSION_RETRY_DELAY_MS);
+              } else {
+                Log.w(TAG, "Camera refused the preview session");
+              }
+            }
+          }, cameraHandler);
+    } catch (CameraAccessException | IllegalArgumentException e) {
+      Log.w(TAG, "Unable to create the preview session", e);
+    }
+  }
+
+  /**
+   * Sends the repeating preview request for the current torch and zoom settings.
+   */
+  private synchronized void applyRequest() {
+    if (session == null || device == null) {
+      return;
+    }
+    try {
+      CaptureRequest.Builder builder = device.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+      builder.addTarget(previewSurface);
+      builder.addTarget(imageReader.getSurface());
+      builder.set(CaptureRequest.CONTROL_MODE, CaptureRequest.CONTROL_MODE_AUTO);
+      builder.set(CaptureRequest.CONTROL_AF_MODE, afMode);
+      builder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
+      if (flashAvailable) {
+        builder.set(CaptureRequest.FLASH_MODE, torch
+            ? CaptureRequest.FLASH_MODE_TORCH : CaptureRequest.FLASH_MODE_OFF);
+      }
+      if (zoom > 1.0f) {
+        // Centred like Camera1 zoom; both outputs are cropped alike, so the framing rect maps
+        // onto frames as before. The crop region is relative to the active array, whose own
+        // top-left is (0, 0) there whatever its offset on the sensor
+        int width = Math.max(1, Math.min(Math.round(activeArray.width() / zoom),
+            activeArray.width()));
+        int height = Math.max(1, Math.min(Math.round(activeArray.height() / zoom),
+            activeArray.height()));
+        int left = (activeArray.width() - width) / 2;
+        int top = (activeArray.height() - height) / 2;
+        builder.set(CaptureRequest.SCALER_CROP_REGION,
+            new Rect(left, top, left + width, top + height));
+      }
+      session.setRepeatingRequest(builder.build(), null, cameraHandler);
+    } catch (CameraAccessException | IllegalStateException e) {
+      Log.w(TAG, "Unable to set the preview request", e);
+    }
+  }
+
+  synchronized void stopPreview() {
+    previewing = false;
+    previewHandler = null;
+    frameReceiver = null;
+    if (session != null) {
+      session.close();
+      session = null;
+    }
+  }
+
+  /**
+   * Closes the camera. Frames still lent out are closed with it, so call this only once nothing
+   * reads them any more, i.e. after the decode workers have been joined.
+   */
+  synchronized void close() {
+    stopPreview();
+    if (device != null) {
+      device.close();
+      device = null;
+    }
+    if (imageReader != null) {
+      closeLentImages();
+      imageReader.close();
+      imageReader = null;
+    }
+  }
+
+  private void closeLentImages() {
+    for (Image image : lent.values()) {
+      image.close();
+    }
+    lent.clear();
+  }
+
+  synchronized boolean getTorch() {
+    return torch;
+  }
+
+  /**
+   * @return the largest digital zoom ratio, 1 without zoom
+   */
+  synchronized float getMaxZoom() {
+    return maxZoom;
+  }
+
+  synchronized void setZoom(float ratio) {
+    float newZoom = Math.max(1.0f, Math.min(ratio, maxZoom));
+    if (zoom != newZoom) {
+      zoom = newZoom;
+      applyRequest();
+    }
+  }
+
+  /**
+   * Switches the torch by updating the repeating request; the session keeps running.
+   */
+  synchronized void setTorch(boolean on) {
+    if (torch != on) {
+      torch = on;
+      applyRequest();
+    }
+  }
+
+  synchronized void requestPreviewFrame(Handler handler, int message) {
+    if (previewing) {
+      previewHandler = handler;
+      previewMessage = message;
+    }
+  }
+
+  synchronized void startPreviewStream(FrameReceiver receiver) {
+    if (previewing) {
+      frameReceiver = receiver;
+    }
+  }
+
+  synchronized void stopPreviewStream() {
+    frameReceiver = null;
+  }
+
+  void releasePreviewFrame(byte[] token) {
+    Image image;
+    synchronized (this) {
+      image = lent.remove(token);
+      if (image == null) {
+        return;
+      }
+      tokens.push(token);
+    }
+    image.close();
+  }
+
+  /**
+   * @return the Y plane of a lent image, valid until the token is released, or null if the
+   * token is not lent out
+   */
+  Image.Plane getLuminancePlane(byte[] token) {
+    Image image;
+    synchronized (this) {
+      image = lent.get(token);
+    }
+    if (image == null) {
+      return null;
+    }
+    try {
+      return image.getPlanes()[0];
+    } catch (IllegalStateException ise) {
+      // Closed under us; the camera is going away
+      return null;
+    }
+  }
+
+  @Override
+  public void onImageAvailable(ImageReader reader) {
+    ScanTracer theScanTracer;
+    synchronized (this) {
+      theScanTracer = scanTracer;
+    }
+    if (theScanTracer == null) {
+      deliverImage(reader);
+      return;
+    }
+    theScanTracer.begin("onImageAvailable", 0);
+    try {
+      deliverImage(reader);
+    } finally {
+      theScanTracer.end("onImageAvailable");
+    }
+  }
+
+  private void deliverImage(ImageReader reader) {
+    Image image;
+    try {
+      // One image is always spare, so the newest frame can be taken
+      image = reader.acquireLatestImage();
+    } catch (IllegalStateException ise) {
+      return;
+    }
+    if (image == null) {
+      return;
+    }
+    byte[] token;
+    Handler thePreviewHandler;
+    FrameReceiver theFrameReceiver;
+    ScanMetrics theScanMetrics;
+    synchronized (this) {
+      thePreviewHandler = previewHandler;
+      theFrameReceiver = frameReceiver;
+      theScanMetrics = scanMetrics;
+      token = reader == imageReader && (thePreviewHandler != null || theFrameReceiver != null)
+          ? tokens.poll() : null;
+      if (token != null) {
+        lent.put(token, image);
+        if (theFrameReceiver == null) {
+          previewHandler = null;
+        }
+      }
+    }
+    if (token == null) {
+      // Nobody asked for this frame, or the decoder holds all of them
+      image.close();
+      if (theScanMetrics != null && (thePreviewHandler != null || theFrameReceiver != null)) {
+        theScanMetrics.onFrameDropped();
+      }
+      return;
+    }
+    if (theScanMetrics != null) {
+      theScanMetrics.onFrameCaptured(token, System.nanoTime());
+    }
+    int width = image.getWidth();
+    int height = image.getHeight();
+    if (theFrameReceiver != null) {
+      theFrameReceiver.onPreviewFrame(token, width, height);
+    } else {
+      thePreviewHandler.obtainMessage(previewMessage, width, height, token).sendToTarget();
+    }
+  }
+
+}
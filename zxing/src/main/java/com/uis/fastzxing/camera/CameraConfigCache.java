@@ -0,0 +1,95 @@
+package com.uis.fastzxing.camera;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Point;
+import android.os.Build;
+
+/**
+ * Remembers the camera parameters negotiated on this device, so later opens can apply them in
+ * a single {@link android.hardware.Camera#setParameters} call instead of searching every
+ * preview size and round-tripping the parameters through the driver. Entries are keyed by the
+ * build ID, camera, screen size, display rotation and preview size policy, and dropped when the
+ * driver rejects them.
+ */
+final class CameraConfigCache {
+
+  private static final String PREFS_NAME = "fastzxing_camera_config";
+  private static final String SEPARATOR = ",";
+
+  /**
+   * Parameters the driver accepted.
+   */
+  static final class Entry {
+    final Point previewSize;
+    final int minFps;
+    final int maxFps;
+    final String focusMode;
+    final int displayOrientation;
+
+    Entry(Point previewSize, int minFps, int maxFps, String focusMode, int displayOrientation) {
+      this.previewSize = previewSize;
+      this.minFps = minFps;
+      this.maxFps = maxFps;
+      this.focusMode = focusMode;
+      this.displayOrientation = displayOrientation;
+    }
+  }
+
+  private final SharedPreferences prefs;
+
+  CameraConfigCache(Context context) {
+    prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+  }
+
+  /**
+   * @param policy identifies how the preview size was picked
+   */
+  static String key(int cameraIndex, Point screenResolution, int displayRotation,
+                    String policy) {
+    return Build.ID + '/' + cameraIndex + '/' + screenResolution.x + 'x' + screenResolution.y
+        + '/' + displayRotation + '/' + policy;
+  }
+
+  /**
+   * @return the entry, or null if there is none or it cannot be read
+   */
+  Entry get(String key) {
+    String value = prefs.getString(key, null);
+    if (value == null) {
+      return null;
+    }
+    String[] fields = value.split(SEPARATOR, -1);
+    try {
+      if (fields.length == 6) {
+        return new Entry(new Point(Integer.parseInt(fields[0]), Integer.parseInt(fields[1])),
+            Integer.parseInt(fields[2]), Integer.parseInt(fields[3]),
+            fields[4].isEmpty() ? null : fields[4], Integer.parseInt(fields[5]));
+      }
+    } catch (NumberFormatException nfe) {
+      // Fall through and forget it
+    }
+    remove(key);
+    return null;
+  }
+
+  void put(String key, Entry entry) {
+    String value = entry.previewSize.x + SEPARATOR + entry.previewSize.y
+        + SEPARATOR + entry.minFps + SEPARATOR + entry.maxFps
+        + SEPARATOR + (entry.focusMode == null ? "" : entry.focusMode)
+        + SEPARATOR + entry.displayOrientation;
+    prefs.edit().putString(key, value).apply();
+  }
+
+  void remove(String key) {
+    prefs.edit().remove(key).apply();
+  }
+
+  /**
+   * Forgets every entry, e.g. after the camera misbehaved with cached parameters.
+   */
+  static void clear(Context context) {
+    context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit().clear().apply();
+  }
+
+}
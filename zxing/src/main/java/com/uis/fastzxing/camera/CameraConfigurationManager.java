@@ -29,6 +29,9 @@ import android.view.WindowManager;
 import com.uis.fastzxing.camera.open.CameraFacing;
 import com.uis.fastzxing.camera.open.OpenCamera;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * A class which deals with reading, parsing, and setting the camera parameters which are used to
  * configure the camera hardware.
@@ -44,21 +47,180 @@ final class CameraConfigurationManager {
   private Point cameraResolution;
   private Point bestPreviewSize;
   private Point previewSizeOnScreen;
+  private int cwRotationFromNaturalToDisplay;
+  private CameraConfigCache configCache;
+  private String cacheKey;
+  private CameraConfigCache.Entry cachedEntry;
+  private PreviewSizePolicy previewSizePolicy;
+  private FrontLightMode frontLightMode;
+  private int framingWidth;
+  private int framingHeight;
 
   CameraConfigurationManager(Context context) {
     this.context = context;
   }
 
   /**
-   * Reads, one time, values from the camera that are needed by the app.
+   * @param configCache where negotiated parameters are remembered, or null to negotiate on
+   *                    every open
+   */
+  void setConfigCache(CameraConfigCache configCache) {
+    this.configCache = configCache;
+  }
+
+  /**
+   * @param frontLightMode how the torch is used, or null for the {@link FrontLightMode}
+   *                       preference
+   */
+  void setFrontLightMode(FrontLightMode frontLightMode) {
+    this.frontLightMode = frontLightMode;
+  }
+
+  FrontLightMode getFrontLightMode() {
+    return frontLightMode != null ? frontLightMode
+        : FrontLightMode.readPref(PreferenceManager.getDefaultSharedPreferences(context));
+  }
+
+  /**
+   * @param previewSizePolicy picks the preview size, or null for the size matching the screen
+   * @param framingWidth width of a manual framing rect, or 0 for the default one
+   * @param framingHeight height of a manual framing rect, or 0 for the default one
+   */
+  void setPreviewSizePolicy(PreviewSizePolicy previewSizePolicy, int framingWidth,
+                            int framingHeight) {
+    this.previewSizePolicy = previewSizePolicy;
+    this.framingWidth = framingWidth;
+    this.framingHeight = framingHeight;
+  }
+
+  /**
+   * Reads, one time, values from the camera that are needed by the app. With parameters cached
+   * for this camera and screen, the preview size is taken from the cache without asking the
+   * driver.
    */
   void initFromCameraParameters(OpenCamera camera) {
-    Camera.Parameters parameters = camera.getCamera().getParameters();
+    Display display = initScreenResolution();
+    initRotation(display, camera.getOrientation(), camera.getFacing() == CameraFacing.FRONT);
+    cachedEntry = null;
+    if (configCache != null) {
+      String policyKey = previewSizePolicy == null ? "screen"
+          : previewSizePolicy.getKey() + '@' + framingWidth + 'x' + framingHeight;
+      cacheKey = CameraConfigCache.key(camera.getIndex(), screenResolution,
+          cwRotationFromNaturalToDisplay, policyKey);
+      CameraConfigCache.Entry entry = configCache.get(cacheKey);
+      // A different orientation means the camera changed under the cache, e.g. after an update
+      if (entry != null && entry.displayOrientation == cwRotationFromDisplayToCamera) {
+        cachedEntry = entry;
+        initPreviewSize(new Point(entry.previewSize));
+        return;
+      }
+    }
+    initPreviewSize(findPreviewSize(camera.getCamera().getParameters()));
+  }
+
+  /**
+   * Applies the cached parameters in a single {@link Camera#setParameters} call. If the driver
+   * rejects them the entry is dropped and the preview size negotiated again, and the caller
+   * falls back to {@link #setDesiredCameraParameters(OpenCamera, boolean)}.
+   *
+   * @return whether cached parameters were applied
+   */
+  boolean applyCachedParameters(OpenCamera camera) {
+    CameraConfigCache.Entry entry = cachedEntry;
+    if (entry == null) {
+      return false;
+    }
+    Camera theCamera = camera.getCamera();
+    try {
+      Camera.Parameters parameters = theCamera.getParameters();
+      SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+      initializeTorch(parameters, prefs, false);
+      if (entry.focusMode != null) {
+        parameters.setFocusMode(entry.focusMode);
+      }
+      if (entry.maxFps > 0) {
+        parameters.setPreviewFpsRange(entry.minFps, entry.maxFps);
+      }
+      parameters.setPreviewSize(entry.previewSize.x, entry.previewSize.y);
+      theCamera.setParameters(parameters);
+      theCamera.setDisplayOrientation(cwRotationFromDisplayToCamera);
+      return true;
+    } catch (RuntimeException re) {
+      Log.w(TAG, "Camera rejected cached parameters, negotiating again", re);
+      configCache.remove(cacheKey);
+      cachedEntry = null;
+      initPreviewSize(findPreviewSize(theCamera.getParameters()));
+      return false;
+    }
+  }
+
+  /**
+   * Like {@link #initFromCameraParameters(OpenCamera)} for a Camera2 device.
+   *
+   * @param sensorOrientation clockwise rotation of the sensor from the natural orientation
+   * @param front whether the camera faces the user
+   * @param supportedSizes the YUV output sizes of the camera
+   */
+  void initFromCameraCharacteristics(int sensorOrientation, boolean front,
+                                     List<Point> supportedSizes) {
+    Display display = initScreenResolution();
+    initRotation(display, sensorOrientation, front);
+    Point bestSize = choosePreviewSize(supportedSizes);
+    if (bestSize == null) {
+      bestSize = CameraConfigurationUtils.findBestPreviewSizeValue(supportedSizes,
+          screenResolution);
+    }
+    if (bestSize == null) {
+      if (supportedSizes.isEmpty()) {
+        throw new IllegalStateException("Camera reported no output sizes!");
+      }
+      bestSize = new Point(supportedSizes.get(0));
+    }
+    initPreviewSize(bestSize);
+  }
+
+  private Point findPreviewSize(Camera.Parameters parameters) {
+    List<Camera.Size> supportedSizes = parameters.getSupportedPreviewSizes();
+    if (supportedSizes != null && previewSizePolicy != null) {
+      List<Point> sizes = new ArrayList<>(supportedSizes.size());
+      for (Camera.Size size : supportedSizes) {
+        sizes.add(new Point(size.width, size.height));
+      }
+      Point size = choosePreviewSize(sizes);
+      if (size != null) {
+        return size;
+      }
+    }
+    return CameraConfigurationUtils.findBestPreviewSizeValue(parameters, screenResolution);
+  }
+
+  /**
+   * @return the size the {@link PreviewSizePolicy} picked, or null
+   */
+  private Point choosePreviewSize(List<Point> sizes) {
+    if (previewSizePolicy == null || sizes.isEmpty()) {
+      return null;
+    }
+    Point framingSize = CameraManager.findFramingSize(screenResolution,
+        screenResolution.x < screenResolution.y, framingWidth, framingHeight);
+    Point size = previewSizePolicy.choosePreviewSize(sizes, screenResolution, framingSize);
+    if (size != null) {
+      Log.i(TAG, "Preview size policy chose " + size.x + 'x' + size.y);
+    }
+    return size;
+  }
+
+  private Display initScreenResolution() {
     WindowManager manager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
     Display display = manager.getDefaultDisplay();
+    Point theScreenResolution = new Point();
+    display.getSize(theScreenResolution);
+    screenResolution = theScreenResolution;
+    return display;
+  }
 
+  private void initRotation(Display display, int cwRotationFromNaturalToCamera, boolean front) {
     int displayRotation = display.getRotation();
-    int cwRotationFromNaturalToDisplay;
     switch (displayRotation) {
       case Surface.ROTATION_0:
         cwRotationFromNaturalToDisplay = 0;
@@ -80,25 +242,22 @@ final class CameraConfigurationManager {
           throw new IllegalArgumentException("Bad rotation: " + displayRotation);
         }
     }
-    int cwRotationFromNaturalToCamera = camera.getOrientation();
 
     // Still not 100% sure about this. But acts like we need to flip this:
-    if (camera.getFacing() == CameraFacing.FRONT) {
+    if (front) {
       cwRotationFromNaturalToCamera = (360 - cwRotationFromNaturalToCamera) % 360;
     }
 
     cwRotationFromDisplayToCamera = (360 + cwRotationFromNaturalToCamera - cwRotationFromNaturalToDisplay) % 360;
-    if (camera.getFacing() == CameraFacing.FRONT) {
+    if (front) {
       cwNeededRotation = (360 - cwRotationFromDisplayToCamera) % 360;
     } else {
       cwNeededRotation = cwRotationFromDisplayToCamera;
     }
+  }
 
-    Point theScreenResolution = new Point();
-    display.getSize(theScreenResolution);
-    screenResolution = theScreenResolution;
-    bestPreviewSize = cameraResolution = CameraConfigurationUtils.findBestPreviewSizeValue(parameters, screenResolution);
-    //bestPreviewSize = CameraConfigurationUtils.findBestPreviewSizeValue(parameters, screenResolution);
+  private void initPreviewSize(Point bestSize) {
+    bestPreviewSize = cameraResolution = bestSize;
 
     boolean isScreenPortrait = screenResolution.x < screenResolution.y;
     boolean isPreviewSizePortrait = bestPreviewSize.x < bestPreviewSize.y;
@@ -161,6 +320,14 @@ final class CameraConfigurationManager {
       bestPreviewSize.x = afterSize.width;
       bestPreviewSize.y = afterSize.height;
     }
+    if (!safeMode && configCache != null && cacheKey != null) {
+      int[] fpsRange = new int[2];
+      afterParameters.getPreviewFpsRange(fpsRange);
+      configCache.put(cacheKey, new CameraConfigCache.Entry(new Point(bestPreviewSize),
+          fpsRange[Camera.Parameters.PREVIEW_FPS_MIN_INDEX],
+          fpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX],
+          afterParameters.getFocusMode(), cwRotationFromDisplayToCamera));
+    }
   }
 
   Point getBestPreviewSize() {
@@ -203,15 +370,14 @@ final class CameraConfigurationManager {
   }
 
   private void initializeTorch(Camera.Parameters parameters, SharedPreferences prefs, boolean safeMode) {
-    boolean currentSetting = FrontLightMode.readPref(prefs) == FrontLightMode.ON;
-    doSetTorch(parameters, currentSetting, safeMode);
+    FrontLightMode mode = frontLightMode != null ? frontLightMode : FrontLightMode.readPref(prefs);
+    doSetTorch(parameters, mode == FrontLightMode.ON, safeMode);
   }
 
   private void doSetTorch(Camera.Parameters parameters, boolean newSetting, boolean safeMode) {
     CameraConfigurationUtils.setTorch(parameters, newSetting);
-    // 不曝光
-    boolean disableExposure = true;
-    if (!safeMode && !disableExposure) {
+    // 仅自动补光时随灯调整曝光补偿：灯灭时调高，灯亮时调低
+    if (!safeMode && getFrontLightMode() == FrontLightMode.AUTO) {
       CameraConfigurationUtils.setBestExposure(parameters, newSetting);
     }
   }
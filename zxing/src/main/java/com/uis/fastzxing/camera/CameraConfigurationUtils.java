@@ -179,6 +179,38 @@ public final class CameraConfigurationUtils {
     }
   }
 
+  /**
+   * Focuses on a region of the preview frame, typically the framing rect, instead of the middle.
+   *
+   * @param area the region in preview frame pixels, in sensor orientation
+   * @param previewSize size of the preview frame
+   * @return whether the parameters were changed
+   */
+  public static boolean setFocusArea(Camera.Parameters parameters, Rect area, Point previewSize) {
+    if (parameters.getMaxNumFocusAreas() <= 0) {
+      Log.i(TAG, "Device does not support focus areas");
+      return false;
+    }
+    Rect cameraArea = new Rect(toCameraCoordinate(area.left, previewSize.x),
+        toCameraCoordinate(area.top, previewSize.y),
+        toCameraCoordinate(area.right, previewSize.x),
+        toCameraCoordinate(area.bottom, previewSize.y));
+    if (cameraArea.width() <= 0 || cameraArea.height() <= 0) {
+      return false;
+    }
+    List<Camera.Area> areas = Collections.singletonList(new Camera.Area(cameraArea, 1));
+    Log.i(TAG, "Setting focus area to : " + toString(areas));
+    parameters.setFocusAreas(areas);
+    return true;
+  }
+
+  /**
+   * @return the pixel coordinate mapped onto the -1000 to 1000 range of camera areas
+   */
+  private static int toCameraCoordinate(int value, int size) {
+    return Math.max(-1000, Math.min(1000, value * 2000 / size - 1000));
+  }
+
   public static void setMetering(Camera.Parameters parameters) {
     if (parameters.getMaxNumMeteringAreas() > 0) {
       Log.i(TAG, "Old metering areas: " + parameters.getMeteringAreas());
@@ -238,6 +270,20 @@ public final class CameraConfigurationUtils {
     }
   }
 
+  /**
+   * @return the largest zoom ratio the camera supports, 1 without zoom
+   */
+  public static float getMaxZoomRatio(Camera.Parameters parameters) {
+    if (!parameters.isZoomSupported()) {
+      return 1.0f;
+    }
+    List<Integer> ratios = parameters.getZoomRatios();
+    if (ratios == null || ratios.isEmpty()) {
+      return 1.0f;
+    }
+    return ratios.get(ratios.size() - 1) / 100.0f;
+  }
+
   private static Integer indexOfClosestZoom(Camera.Parameters parameters, double targetZoomRatio) {
     List<Integer> ratios = parameters.getZoomRatios();
     Log.i(TAG, "Zoom ratios: " + ratios);
@@ -283,14 +329,41 @@ public final class CameraConfigurationUtils {
       }
       return new Point(defaultSize.width, defaultSize.height);
     }
+    List<Point> sizes = new ArrayList<>(rawSupportedSizes.size());
+    for (Camera.Size size : rawSupportedSizes) {
+      sizes.add(new Point(size.width, size.height));
+    }
+    Point bestSize = findBestPreviewSizeValue(sizes, screenResolution);
+    if (bestSize != null) {
+      return bestSize;
+    }
 
+    // If there is nothing at all suitable, return current preview size
+    Camera.Size defaultPreview = parameters.getPreviewSize();
+    if (defaultPreview == null) {
+      throw new IllegalStateException("Parameters contained no preview size!");
+    }
+    Point defaultSize = new Point(defaultPreview.width, defaultPreview.height);
+    Log.i(TAG, "No suitable preview sizes, using default: " + defaultSize);
+    return defaultSize;
+  }
+
+  /**
+   * Picks the preview size matching the screen exactly, or else the largest one with about the
+   * screen's aspect ratio, whichever camera API the sizes came from.
+   *
+   * @param rawSupportedSizes supported preview sizes, in sensor orientation
+   * @return the size, or null if none is suitable
+   */
+  public static Point findBestPreviewSizeValue(List<Point> rawSupportedSizes,
+                                               Point screenResolution) {
     // Sort by size, descending
-    List<Camera.Size> supportedPreviewSizes = new ArrayList<>(rawSupportedSizes);
-    Collections.sort(supportedPreviewSizes, new Comparator<Camera.Size>() {
+    List<Point> supportedPreviewSizes = new ArrayList<>(rawSupportedSizes);
+    Collections.sort(supportedPreviewSizes, new Comparator<Point>() {
       @Override
-      public int compare(Camera.Size a, Camera.Size b) {
-        int aPixels = a.height * a.width;
-        int bPixels = b.height * b.width;
+      public int compare(Point a, Point b) {
+        int aPixels = a.y * a.x;
+        int bPixels = b.y * b.x;
         if (bPixels < aPixels) {
           return -1;
         }
@@ -303,36 +376,27 @@ public final class CameraConfigurationUtils {
 
     {
       StringBuilder previewSizesString = new StringBuilder();
-      for (Camera.Size supportedPreviewSize : supportedPreviewSizes) {
-        previewSizesString.append(supportedPreviewSize.width).append('x')
-            .append(supportedPreviewSize.height).append(' ');
+      for (Point supportedPreviewSize : supportedPreviewSizes) {
+        previewSizesString.append(supportedPreviewSize.x).append('x')
+            .append(supportedPreviewSize.y).append(' ');
       }
       Log.i(TAG, "Supported preview sizes: " + previewSizesString);
     }
 
-    double screenAspectRatio = screenResolution.x / (double) screenResolution.y;
-    screenAspectRatio = screenAspectRatio>1.0 ? screenAspectRatio:1.0d/screenAspectRatio;
     // Remove sizes that are unsuitable
-    Iterator<Camera.Size> it = supportedPreviewSizes.iterator();
+    Iterator<Point> it = supportedPreviewSizes.iterator();
     while (it.hasNext()) {
-      Camera.Size supportedPreviewSize = it.next();
-      int realWidth = supportedPreviewSize.width;
-      int realHeight = supportedPreviewSize.height;
-      if (realWidth * realHeight < MIN_PREVIEW_PIXELS) {
+      Point supportedPreviewSize = it.next();
+      if (!isSuitablePreviewSize(supportedPreviewSize, screenResolution)) {
         it.remove();
         continue;
       }
 
+      int realWidth = supportedPreviewSize.x;
+      int realHeight = supportedPreviewSize.y;
       boolean isCandidatePortrait = realWidth < realHeight;
       int maybeFlippedWidth = isCandidatePortrait ? realHeight : realWidth;
       int maybeFlippedHeight = isCandidatePortrait ? realWidth : realHeight;
-      double aspectRatio = maybeFlippedWidth / (double) maybeFlippedHeight;
-      double distortion = Math.abs(aspectRatio - screenAspectRatio);
-      if (distortion > MAX_ASPECT_DISTORTION) {
-        it.remove();
-        continue;
-      }
-
       if (maybeFlippedWidth == screenResolution.x && maybeFlippedHeight == screenResolution.y) {
         Point exactPoint = new Point(realWidth, realHeight);
         return exactPoint;
@@ -343,20 +407,25 @@ public final class CameraConfigurationUtils {
     // of the additional computation needed. We're likely to get here on newer Android 4+ devices, where
     // the CPU is much more powerful.
     if (!supportedPreviewSizes.isEmpty()) {
-      Camera.Size largestPreview = supportedPreviewSizes.get(0);
-      Point largestSize = new Point(largestPreview.width, largestPreview.height);
+      Point largestSize = new Point(supportedPreviewSizes.get(0));
       Log.i(TAG, "Using largest suitable preview size: " + largestSize);
       return largestSize;
     }
+    return null;
+  }
 
-    // If there is nothing at all suitable, return current preview size
-    Camera.Size defaultPreview = parameters.getPreviewSize();
-    if (defaultPreview == null) {
-      throw new IllegalStateException("Parameters contained no preview size!");
+  /**
+   * @return whether a preview size is large enough and close enough to the screen's aspect ratio
+   * to be shown without visible distortion
+   */
+  public static boolean isSuitablePreviewSize(Point size, Point screenResolution) {
+    if (size.x * size.y < MIN_PREVIEW_PIXELS) {
+      return false;
     }
-    Point defaultSize = new Point(defaultPreview.width, defaultPreview.height);
-    Log.i(TAG, "No suitable preview sizes, using default: " + defaultSize);
-    return defaultSize;
+    double screenAspectRatio = screenResolution.x / (double) screenResolution.y;
+    screenAspectRatio = screenAspectRatio>1.0 ? screenAspectRatio:1.0d/screenAspectRatio;
+    double aspectRatio = Math.max(size.x, size.y) / (double) Math.min(size.x, size.y);
+    return Math.abs(aspectRatio - screenAspectRatio) <= MAX_ASPECT_DISTORTION;
   }
 
   private static String findSettableValue(String name,
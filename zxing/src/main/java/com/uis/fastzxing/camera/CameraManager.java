@@ -21,15 +21,23 @@ import android.content.res.Configuration;
 import android.graphics.Point;
 import android.graphics.Rect;
 import android.hardware.Camera;
+import android.media.Image;
+import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.SurfaceHolder;
 
-import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.LuminanceSource;
 import com.uis.fastzxing.camera.open.OpenCamera;
 import com.uis.fastzxing.camera.open.OpenCameraInterface;
+import com.uis.fastzxing.common.ScanMetrics;
+import com.uis.fastzxing.common.ScanTracer;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * This object wraps the Camera service object and expects to be the only one talking to it. The
@@ -38,7 +46,7 @@ import java.io.IOException;
  *
  * @author dswitkin@google.com (Daniel Switkin)
  */
-public final class CameraManager {
+public final class CameraManager implements FrameSource {
 
   private static final String TAG = CameraManager.class.getSimpleName();
 
@@ -46,11 +54,37 @@ public final class CameraManager {
   private static final int MIN_FRAME_HEIGHT = 240;
   public static final int MAX_FRAME_WIDTH = 1200; // = 5/8 * 1920=1200
   public static final int MAX_FRAME_HEIGHT = 675; // = 5/8 * 1080=675
+  private static final int PREVIEW_BUFFER_COUNT = 3;
+
+  /**
+   * Camera2 where the device implements it natively, Camera1 otherwise.
+   */
+  public static final int BACKEND_AUTO = 0;
+  public static final int BACKEND_CAMERA1 = 1;
+  /**
+   * Only honoured on API 21 and up.
+   */
+  public static final int BACKEND_CAMERA2 = 2;
 
   private final Context context;
   private final CameraConfigurationManager configManager;
   private OpenCamera camera;
-  private AutoFocusManager autoFocusManager;
+  private Camera2Session camera2;
+  private int backend = BACKEND_AUTO;
+  private int previewBufferCount = PREVIEW_BUFFER_COUNT;
+  private boolean useConfigCache = true;
+  private PreviewSizePolicy previewSizePolicy;
+  private ScanMetrics scanMetrics;
+  private FocusScheduler focusScheduler;
+  private FrontLightMode frontLightMode;
+  private FrontLightMode openFrontLightMode = FrontLightMode.OFF;
+  private final TorchController torchController = new TorchController();
+  private boolean torchOn;
+  private boolean manualTorch;
+  private boolean autoZoom;
+  private final ZoomController zoomController = new ZoomController();
+  private float zoomRatio = 1.0f;
+  private ScanTracer scanTracer;
   private Rect framingRect;
   private Rect framingRectPreview;
   private boolean initialized;
@@ -62,12 +96,22 @@ public final class CameraManager {
    * clear the handler so it will only receive one message.
    */
   private final PreviewCallback previewCallback;
+  private final PreviewBufferPool previewBufferPool;
+  private boolean usePreviewBuffers = true;
+  private boolean previewingWithBuffers;
   private int laserFrameTopMargin = 0;//扫描框离屏幕上方距离
+  /**
+   * The camera is opened on this thread, so Camera1 delivers preview and auto focus callbacks to
+   * its looper rather than the UI looper.
+   */
+  private HandlerThread cameraThread;
+  private Handler cameraHandler;
 
   public CameraManager(Context context) {
     this.context = context;
     this.configManager = new CameraConfigurationManager(context);
-    previewCallback = new PreviewCallback(configManager);
+    previewBufferPool = new PreviewBufferPool(PREVIEW_BUFFER_COUNT);
+    previewCallback = new PreviewCallback(configManager, previewBufferPool);
   }
 
   public Context getContext() {
@@ -81,10 +125,28 @@ public final class CameraManager {
    * @throws IOException Indicates the camera driver failed to open.
    */
   public synchronized void openDriver(SurfaceHolder holder) throws IOException {
+    if (!isOpen()) {
+      configManager.setFrontLightMode(frontLightMode);
+      openFrontLightMode = configManager.getFrontLightMode();
+      torchOn = openFrontLightMode == FrontLightMode.ON;
+      manualTorch = false;
+      torchController.reset(SystemClock.uptimeMillis());
+    }
+    if (camera2 != null || (camera == null && useCamera2())) {
+      try {
+        openCamera2(holder);
+        return;
+      } catch (IOException ioe) {
+        if (backend != BACKEND_AUTO) {
+          throw ioe;
+        }
+        Log.w(TAG, "Camera2 failed to open, falling back to Camera1", ioe);
+      }
+    }
     OpenCamera theCamera = camera;
     if (theCamera == null) {
       //获取手机背面的摄像头
-      theCamera = OpenCameraInterface.open(requestedCameraId);
+      theCamera = openOnCameraThread(requestedCameraId);
       if (theCamera == null) {
         throw new IOException("Camera.open() failed to return object from driver");
       }
@@ -93,6 +155,8 @@ public final class CameraManager {
 
     if (!initialized) {
       initialized = true;
+      configManager.setConfigCache(useConfigCache ? new CameraConfigCache(context) : null);
+      configManager.setPreviewSizePolicy(previewSizePolicy, frameRectWidth, frameRectHeight);
       configManager.initFromCameraParameters(theCamera);
       if (frameRectWidth > 0 && frameRectHeight > 0) {
         setManualFramingRect(frameRectWidth, frameRectHeight);
@@ -100,19 +164,22 @@ public final class CameraManager {
     }
 
     Camera cameraObject = theCamera.getCamera();
-    Camera.Parameters parameters = cameraObject.getParameters();
-    String parametersFlattened = parameters == null ? null : parameters.flatten(); // Save these, temporarily
-    try {
-      configManager.setDesiredCameraParameters(theCamera, false);
-    } catch (RuntimeException re) {
-      if (parametersFlattened != null) {
-        parameters = cameraObject.getParameters();
-        parameters.unflatten(parametersFlattened);
-        try {
-          cameraObject.setParameters(parameters);
-          configManager.setDesiredCameraParameters(theCamera, true);
-        } catch (RuntimeException re2) {
-          Log.w(TAG, "Camera rejected even safe-mode parameters! No configuration");
+    // Parameters this device accepted before go in with a single setParameters
+    if (!configManager.applyCachedParameters(theCamera)) {
+      Camera.Parameters parameters = cameraObject.getParameters();
+      String parametersFlattened = parameters == null ? null : parameters.flatten(); // Save these, temporarily
+      try {
+        configManager.setDesiredCameraParameters(theCamera, false);
+      } catch (RuntimeException re) {
+        if (parametersFlattened != null) {
+          parameters = cameraObject.getParameters();
+          parameters.unflatten(parametersFlattened);
+          try {
+            cameraObject.setParameters(parameters);
+            configManager.setDesiredCameraParameters(theCamera, true);
+          } catch (RuntimeException re2) {
+            Log.w(TAG, "Camera rejected even safe-mode parameters! No configuration");
+          }
         }
       }
     }
@@ -120,31 +187,155 @@ public final class CameraManager {
 
   }
 
+  private boolean useCamera2() {
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP || backend == BACKEND_CAMERA1) {
+      return false;
+    }
+    return backend == BACKEND_CAMERA2 || Camera2Session.isPreferred(context, requestedCameraId);
+  }
+
+  private void openCamera2(SurfaceHolder holder) throws IOException {
+    if (camera2 == null) {
+      Camera2Session session = new Camera2Session(context, configManager, startCameraThread());
+      session.setScanMetrics(scanMetrics);
+      session.setScanTracer(scanTracer);
+      session.setLendCapacity(previewBufferCount);
+      configManager.setPreviewSizePolicy(previewSizePolicy, frameRectWidth, frameRectHeight);
+      session.open(requestedCameraId, holder);
+      camera2 = session;
+      if (!initialized) {
+        initialized = true;
+        if (frameRectWidth > 0 && frameRectHeight > 0) {
+          setManualFramingRect(frameRectWidth, frameRectHeight);
+        }
+      }
+    }
+  }
+
+  private Handler startCameraThread() {
+    if (cameraThread == null) {
+      cameraThread = new HandlerThread("CameraThread");
+      cameraThread.start();
+      cameraHandler = new Handler(cameraThread.getLooper());
+    }
+    return cameraHandler;
+  }
+
+  /**
+   * Opens the camera from the camera thread, blocking until it is done.
+   */
+  private OpenCamera openOnCameraThread(final int cameraId) {
+    startCameraThread();
+    final OpenCamera[] opened = new OpenCamera[1];
+    final RuntimeException[] failure = new RuntimeException[1];
+    final CountDownLatch openLatch = new CountDownLatch(1);
+    cameraHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          opened[0] = OpenCameraInterface.open(cameraId);
+        } catch (RuntimeException re) {
+          failure[0] = re;
+        } finally {
+          openLatch.countDown();
+        }
+      }
+    });
+    boolean interrupted = false;
+    while (true) {
+      try {
+        openLatch.await();
+        break;
+      } catch (InterruptedException ie) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    if (failure[0] != null) {
+      throw failure[0];
+    }
+    return opened[0];
+  }
+
   public synchronized boolean isOpen() {
-    return camera != null;
+    return camera != null || camera2 != null;
   }
 
   /**
    * Closes the camera driver if still in use.
    */
   public synchronized void closeDriver() {
+    if (camera2 != null) {
+      camera2.close();
+      camera2 = null;
+      framingRect = null;
+      framingRectPreview = null;
+    }
     if (camera != null) {
+      previewBufferPool.detach();
       camera.getCamera().release();
       camera = null;
       framingRect = null;
       framingRectPreview = null;
     }
+    zoomRatio = 1.0f;
+    if (cameraThread != null) {
+      cameraThread.quit();
+      cameraThread = null;
+      cameraHandler = null;
+    }
   }
 
   /**
    * Asks the camera hardware to begin drawing preview frames to the screen.
    */
   public synchronized void startPreview() {
+    if (camera2 != null) {
+      camera2.startPreview();
+      resetZoom(camera2.getMaxZoom());
+      return;
+    }
     OpenCamera theCamera = camera;
     if (theCamera != null && !previewing) {
-      theCamera.getCamera().startPreview();
+      Point cameraResolution = configManager.getCameraResolution();
+      previewingWithBuffers = usePreviewBuffers && cameraResolution != null;
+      Camera cameraObject = theCamera.getCamera();
+      if (previewingWithBuffers) {
+        cameraObject.setPreviewCallbackWithBuffer(previewCallback);
+        previewBufferPool.attach(cameraObject, cameraResolution.x, cameraResolution.y);
+      }
+      cameraObject.startPreview();
       previewing = true;
-      autoFocusManager = new AutoFocusManager(context, theCamera.getCamera());
+      applyFocusArea(cameraObject);
+      resetZoom(CameraConfigurationUtils.getMaxZoomRatio(cameraObject.getParameters()));
+      focusScheduler = new FocusScheduler(cameraObject, cameraHandler, scanMetrics, scanTracer);
+      focusScheduler.start();
+    }
+  }
+
+  /**
+   * Focuses on the framing rect rather than the middle of the frame.
+   */
+  private void applyFocusArea(Camera cameraObject) {
+    Rect rect = getFramingRectInPreview();
+    Point cameraResolution = configManager.getCameraResolution();
+    if (rect == null || cameraResolution == null) {
+      return;
+    }
+    // In portrait the rect is in rotated coordinates; screen (x, y) is sensor (y, height - x)
+    Rect sensorRect = isPortrait()
+        ? new Rect(rect.top, cameraResolution.y - rect.right, rect.bottom,
+            cameraResolution.y - rect.left)
+        : rect;
+    try {
+      Camera.Parameters parameters = cameraObject.getParameters();
+      if (CameraConfigurationUtils.setFocusArea(parameters, sensorRect, cameraResolution)) {
+        cameraObject.setParameters(parameters);
+      }
+    } catch (RuntimeException re) {
+      Log.w(TAG, "Camera rejected the focus area", re);
     }
   }
 
@@ -152,13 +343,21 @@ public final class CameraManager {
    * Tells the camera to stop drawing preview frames.
    */
   public synchronized void stopPreview() {
-    if (autoFocusManager != null) {
-      autoFocusManager.stop();
-      autoFocusManager = null;
+    if (camera2 != null) {
+      camera2.stopPreview();
+    }
+    if (focusScheduler != null) {
+      focusScheduler.stop();
+      focusScheduler = null;
     }
     if (camera != null && previewing) {
+      if (previewingWithBuffers) {
+        camera.getCamera().setPreviewCallbackWithBuffer(null);
+        previewBufferPool.detach();
+      }
       camera.getCamera().stopPreview();
       previewCallback.setHandler(null, 0);
+      previewCallback.setFrameReceiver(null);
       previewing = false;
     }
   }
@@ -170,39 +369,343 @@ public final class CameraManager {
    *
    */
   public synchronized void setTorch(boolean newSetting) {
-    OpenCamera theCamera = camera;
-    if (theCamera != null) {
-      if (newSetting != configManager.getTorchState(theCamera.getCamera())) {
-        boolean wasAutoFocusManager = autoFocusManager != null;
-        if (wasAutoFocusManager) {
-          autoFocusManager.stop();
-          autoFocusManager = null;
-        }
+    // A manual switch overrides FrontLightMode.AUTO until the camera is opened again
+    manualTorch = true;
+    if (camera != null && newSetting == configManager.getTorchState(camera.getCamera())) {
+      torchOn = newSetting;
+      return;
+    }
+    applyTorch(newSetting);
+  }
+
+  private void applyTorch(final boolean newSetting) {
+    if (camera2 != null) {
+      // Camera2 only swaps the repeating request, focus keeps running
+      camera2.setTorch(newSetting);
+      torchOn = newSetting;
+      return;
+    }
+    final OpenCamera theCamera = camera;
+    if (theCamera == null) {
+      return;
+    }
+    torchOn = newSetting;
+    changeParameters(theCamera, new Runnable() {
+      @Override
+      public void run() {
         configManager.setTorch(theCamera.getCamera(), newSetting);
-        if (wasAutoFocusManager) {
-          autoFocusManager = new AutoFocusManager(context, theCamera.getCamera());
-          autoFocusManager.start();
+      }
+    });
+  }
+
+  /**
+   * Runs a Camera1 parameter change between focus cycles rather than restarting focus for it,
+   * or right away without a focus scheduler. The change is dropped if the camera was closed in
+   * the meantime.
+   */
+  private void changeParameters(final OpenCamera theCamera, final Runnable change) {
+    Runnable guarded = new Runnable() {
+      @Override
+      public void run() {
+        synchronized (CameraManager.this) {
+          if (camera == theCamera) {
+            change.run();
+          }
         }
       }
+    };
+    if (focusScheduler != null) {
+      focusScheduler.runBetweenCycles(guarded);
+    } else {
+      guarded.run();
+    }
+  }
+
+  /**
+   * Zooms in when codes are too small to decode: the module size estimated by QR finder
+   * patterns steers the zoom toward about 4 pixels per module, and it goes back to 1 after a
+   * result or a few seconds without one. Zoom magnifies the preview on screen and the frames
+   * alike, so the framing rect keeps mapping onto the same frame pixels. Takes effect on the
+   * next {@link #startPreview()}.
+   *
+   * @param autoZoom default false
+   */
+  public synchronized void setAutoZoom(boolean autoZoom) {
+    this.autoZoom = autoZoom;
+  }
+
+  /**
+   * @return the current zoom ratio, 1 when not zoomed
+   */
+  public synchronized float getZoomRatio() {
+    return zoomRatio;
+  }
+
+  private void resetZoom(float maxZoom) {
+    zoomController.reset(maxZoom, SystemClock.uptimeMillis());
+    if (zoomRatio != 1.0f) {
+      applyZoom(1.0f);
+    }
+  }
+
+  private void applyZoom(final float ratio) {
+    zoomRatio = ratio;
+    if (camera2 != null) {
+      camera2.setZoom(ratio);
+      return;
+    }
+    final OpenCamera theCamera = camera;
+    if (theCamera == null) {
+      return;
+    }
+    changeParameters(theCamera, new Runnable() {
+      @Override
+      public void run() {
+        Camera cameraObject = theCamera.getCamera();
+        try {
+          Camera.Parameters parameters = cameraObject.getParameters();
+          CameraConfigurationUtils.setZoom(parameters, ratio);
+          cameraObject.setParameters(parameters);
+        } catch (RuntimeException re) {
+          Log.w(TAG, "Camera rejected zoom " + ratio, re);
+        }
+      }
+    });
+  }
+
+  /**
+   * Chooses how the torch is used. {@link FrontLightMode#AUTO} switches it by the brightness of
+   * the framing rect and adjusts exposure compensation with it, until {@link #setTorch} is
+   * called. Takes effect on the next {@link #openDriver(SurfaceHolder)}.
+   *
+   * @param frontLightMode the mode, or null for the {@link FrontLightMode#KEY_FRONT_LIGHT_MODE}
+   *                       preference, which defaults to off
+   */
+  public synchronized void setFrontLightMode(FrontLightMode frontLightMode) {
+    this.frontLightMode = frontLightMode;
+  }
+
+  /**
+   * Switches the torch in {@link FrontLightMode#AUTO}, with the hysteresis of a
+   * {@link TorchController}.
+   */
+  @Override
+  public synchronized void onFrameLuminance(float mean, float darkFraction,
+                                            float saturatedFraction) {
+    if (manualTorch || !isOpen() || openFrontLightMode != FrontLightMode.AUTO) {
+      return;
+    }
+    boolean newSetting = torchController.update(mean, darkFraction, saturatedFraction, torchOn,
+        SystemClock.uptimeMillis());
+    if (newSetting != torchOn) {
+      Log.i(TAG, "Turning the torch " + (newSetting ? "on" : "off") + " at mean luminance "
+          + mean);
+      applyTorch(newSetting);
     }
   }
 
   /**
    * A single preview frame will be returned to the handler supplied. The data will arrive as byte[]
    * in the message.obj field, with width and height encoded as message.arg1 and message.arg2,
-   * respectively.
+   * respectively. The receiver must hand the data back with {@link #releasePreviewFrame(byte[])}
+   * once it is done with it.
    *
    * @param handler The handler to send the message to.
    * @param message The what field of the message to be sent.
    */
   public synchronized void requestPreviewFrame(Handler handler, int message) {
+    if (camera2 != null) {
+      camera2.requestPreviewFrame(handler, message);
+      return;
+    }
     OpenCamera theCamera = camera;
     if (theCamera != null && previewing) {
       previewCallback.setHandler(handler, message);
-      theCamera.getCamera().setOneShotPreviewCallback(previewCallback);
+      if (!previewingWithBuffers) {
+        theCamera.getCamera().setOneShotPreviewCallback(previewCallback);
+      }
     }
   }
 
+  /**
+   * Streams every preview frame to the receiver, instead of one frame per
+   * {@link #requestPreviewFrame(Handler, int)}, until {@link #stopPreviewStream()} or
+   * {@link #stopPreview()}. With pooled buffers the driver simply drops frames while the receiver
+   * holds all of them.
+   *
+   * @param receiver gets each frame and must release it with {@link #releasePreviewFrame(byte[])}
+   */
+  public synchronized void startPreviewStream(FrameReceiver receiver) {
+    if (camera2 != null) {
+      camera2.startPreviewStream(receiver);
+      return;
+    }
+    OpenCamera theCamera = camera;
+    if (theCamera != null && previewing) {
+      previewCallback.setFrameReceiver(receiver);
+      if (!previewingWithBuffers) {
+        theCamera.getCamera().setPreviewCallback(previewCallback);
+      }
+    }
+  }
+
+  /**
+   * Stops delivering frames to the receiver given to {@link #startPreviewStream(FrameReceiver)}.
+   */
+  public synchronized void stopPreviewStream() {
+    if (camera2 != null) {
+      camera2.stopPreviewStream();
+    }
+    previewCallback.setFrameReceiver(null);
+    if (camera != null && previewing && !previewingWithBuffers) {
+      camera.getCamera().setPreviewCallback(null);
+    }
+  }
+
+  /**
+   * Returns a frame delivered by {@link #requestPreviewFrame(Handler, int)} or
+   * {@link #startPreviewStream(FrameReceiver)} to the preview buffer pool. Frames that did not
+   * come from the pool are ignored.
+   *
+   * @param data The preview frame the decoder is finished with.
+   */
+  public void releasePreviewFrame(byte[] data) {
+    Camera2Session theCamera2;
+    synchronized (this) {
+      theCamera2 = camera2;
+    }
+    if (theCamera2 != null) {
+      theCamera2.releasePreviewFrame(data);
+    } else {
+      previewBufferPool.release(data);
+    }
+  }
+
+  /**
+   * Hands the decoder's view of a frame to the focus scheduler, which refocuses when frames get
+   * blurry or finder patterns are seen without a result, and with {@link #setAutoZoom} on to
+   * the zoom controller. Camera2 keeps its continuous focus.
+   */
+  @Override
+  public void onFrameDecoded(boolean decoded, float sharpness, int finderPoints,
+                             float moduleSize) {
+    FocusScheduler theFocusScheduler;
+    synchronized (this) {
+      theFocusScheduler = focusScheduler;
+      if (autoZoom && (previewing || camera2 != null)) {
+        float ratio = zoomController.update(decoded, moduleSize, SystemClock.uptimeMillis());
+        if (ratio != zoomRatio) {
+          Log.i(TAG, "Zooming to " + ratio + " at " + moduleSize + " pixels per module");
+          applyZoom(ratio);
+        }
+      }
+    }
+    if (theFocusScheduler != null) {
+      theFocusScheduler.onFrameDecoded(decoded, sharpness, finderPoints);
+    }
+  }
+
+  /**
+   * Sets how many preview buffers are pooled; every frame held by a decoder, queued for one, or
+   * being filled by the driver needs its own buffer. Takes effect on the next
+   * {@link #startPreview()}.
+   *
+   * @param count number of pooled preview buffers, at least 2
+   */
+  public synchronized void setPreviewBufferCount(int count) {
+    previewBufferCount = Math.max(2, count);
+    previewBufferPool.setCapacity(previewBufferCount);
+    if (camera2 != null) {
+      camera2.setLendCapacity(previewBufferCount);
+    }
+  }
+
+  /**
+   * Stamps every frame handed on for decoding with its capture time.
+   *
+   * @param scanMetrics where frames are recorded, or null to record nothing
+   */
+  public synchronized void setScanMetrics(ScanMetrics scanMetrics) {
+    this.scanMetrics = scanMetrics;
+    previewCallback.setScanMetrics(scanMetrics);
+    if (camera2 != null) {
+      camera2.setScanMetrics(scanMetrics);
+    }
+  }
+
+  /**
+   * Traces preview callbacks and focus cycles. Takes effect on the next {@link #startPreview()}
+   * for focus cycles.
+   *
+   * @param scanTracer where events are recorded, or null to record nothing
+   */
+  public synchronized void setScanTracer(ScanTracer scanTracer) {
+    this.scanTracer = scanTracer;
+    previewCallback.setScanTracer(scanTracer);
+    if (camera2 != null) {
+      camera2.setScanTracer(scanTracer);
+    }
+  }
+
+  /**
+   * Chooses between a fixed pool of preview buffers ({@code true}, the default) and a one-shot
+   * callback per frame which lets the driver allocate every frame. Takes effect on the next
+   * {@link #startPreview()}.
+   *
+   * @param usePreviewBuffers whether to decode from pooled preview buffers
+   */
+  public synchronized void setUsePreviewBuffers(boolean usePreviewBuffers) {
+    this.usePreviewBuffers = usePreviewBuffers;
+  }
+
+  /**
+   * Chooses the camera API. {@link #BACKEND_AUTO}, the default, uses Camera2 on API 21 and up
+   * unless the camera only has a LEGACY Camera2 implementation, which is a slower wrapper around
+   * Camera1. Camera2 decodes straight from the Y plane of each {@link android.media.Image}.
+   * Takes effect on the next {@link #openDriver(SurfaceHolder)}.
+   *
+   * @param backend {@link #BACKEND_AUTO}, {@link #BACKEND_CAMERA1} or {@link #BACKEND_CAMERA2}
+   */
+  public synchronized void setBackend(int backend) {
+    this.backend = backend;
+  }
+
+  /**
+   * Whether Camera1 parameters negotiated on an earlier open are reused, which skips the preview
+   * size search and the parameter round trip through the driver. Entries the driver rejects are
+   * dropped. Takes effect on the first {@link #openDriver(SurfaceHolder)}.
+   *
+   * @param useConfigCache default true
+   */
+  public synchronized void setUseConfigCache(boolean useConfigCache) {
+    this.useConfigCache = useConfigCache;
+  }
+
+  /**
+   * Replaces how the preview size is picked, e.g. with a {@link DecodeBudgetPreviewSizePolicy}
+   * that keeps frames no larger than the decoder needs. Takes effect on the first
+   * {@link #openDriver(SurfaceHolder)}.
+   *
+   * @param previewSizePolicy the policy, or null for the size closest to the screen resolution
+   */
+  public synchronized void setPreviewSizePolicy(PreviewSizePolicy previewSizePolicy) {
+    this.previewSizePolicy = previewSizePolicy;
+  }
+
+  /**
+   * Forgets the camera parameters cached on this device.
+   */
+  public static void clearConfigCache(Context context) {
+    CameraConfigCache.clear(context);
+  }
+
+  /**
+   * @return whether the open camera is driven through Camera2
+   */
+  public synchronized boolean isCamera2() {
+    return camera2 != null;
+  }
+
   /**
    * Calculates the framing rect which the UI should draw to show the user where to place the
    * barcode. This target helps with alignment as well as forces the user to hold the device
@@ -213,26 +716,41 @@ public final class CameraManager {
    */
   public synchronized Rect getFramingRect() {
     if (framingRect == null) {
-      if (camera == null) {
+      if (camera == null && camera2 == null) {
         return null;
       }
       Point screenResolution = configManager.getScreenResolution();
       if (screenResolution == null) {
         return null;
       }
-      int width = findDesiredDimensionInRange(screenResolution.x, MIN_FRAME_WIDTH, MAX_FRAME_WIDTH);
-      int height = findDesiredDimensionInRange(screenResolution.y, MIN_FRAME_HEIGHT, MAX_FRAME_HEIGHT);
-      //竖屏则为正方形
-      if (context.getResources().getConfiguration().orientation == Configuration.ORIENTATION_PORTRAIT) {
-        height = width;
-      }
-      int leftOffset = (screenResolution.x - width) / 2;
-      int topOffset = (screenResolution.y - height ) / 2 ;
+      Point size = findFramingSize(screenResolution, isPortrait(), 0, 0);
+      int leftOffset = (screenResolution.x - size.x) / 2;
+      int topOffset = (screenResolution.y - size.y ) / 2 ;
       topOffset = topOffset + laserFrameTopMargin;
-      framingRect = new Rect(leftOffset, topOffset,leftOffset + width,topOffset + height);
+      framingRect = new Rect(leftOffset, topOffset,leftOffset + size.x,topOffset + size.y);
     }
     return framingRect;
   }
+
+  /**
+   * @param manualWidth width set through {@link #setManualFramingRect}, or 0 for the default
+   * @param manualHeight height set through {@link #setManualFramingRect}, or 0 for the default
+   * @return the size of the framing rect on screen
+   */
+  static Point findFramingSize(Point screenResolution, boolean portrait, int manualWidth,
+                               int manualHeight) {
+    if (manualWidth > 0 && manualHeight > 0) {
+      return new Point(Math.min(manualWidth, screenResolution.x),
+          Math.min(manualHeight, screenResolution.y));
+    }
+    int width = findDesiredDimensionInRange(screenResolution.x, MIN_FRAME_WIDTH, MAX_FRAME_WIDTH);
+    int height = findDesiredDimensionInRange(screenResolution.y, MIN_FRAME_HEIGHT, MAX_FRAME_HEIGHT);
+    //竖屏则为正方形
+    if (portrait) {
+      height = width;
+    }
+    return new Point(width, height);
+  }
   
   private static int findDesiredDimensionInRange(int resolution, int hardMin, int hardMax) {
     int dim = resolution*5/8; // Target 5/8 of each dimension
@@ -258,13 +776,12 @@ public final class CameraManager {
       if (cameraP == null || screenP == null) {
         return null;
       }
-      Log.e("camera","camera="+cameraP+",screen="+screenP);
       Rect rect = new Rect(framingRect);
       int width = rect.left + rect.right;
       int height = rect.top + rect.bottom;
       int extend = 0;
       float ratio;
-      if (context.getResources().getConfiguration().orientation == Configuration.ORIENTATION_PORTRAIT) {
+      if (isPortrait()) {
         //竖屏 cameraP=Point(1920, 1080),screenP=Point(1080, 1920)
         if(rect.left > width/12){
           extend = rect.left - width/12;
@@ -316,16 +833,11 @@ public final class CameraManager {
       return;
     }
     Point screenResolution = configManager.getScreenResolution();
-    if (width > screenResolution.x) {
-      width = screenResolution.x;
-    }
-    if (height > screenResolution.y) {
-      height = screenResolution.y;
-    }
-    int leftOffset = (screenResolution.x - width) / 2;
-    int topOffset = (screenResolution.y - height) / 2;
+    Point size = findFramingSize(screenResolution, isPortrait(), width, height);
+    int leftOffset = (screenResolution.x - size.x) / 2;
+    int topOffset = (screenResolution.y - size.y) / 2;
     topOffset += laserFrameTopMargin;
-    framingRect = new Rect(leftOffset, topOffset, leftOffset + width,topOffset + height);
+    framingRect = new Rect(leftOffset, topOffset, leftOffset + size.x,topOffset + size.y);
     framingRectPreview = null;
   }
 
@@ -336,24 +848,89 @@ public final class CameraManager {
    * @param data A preview frame.
    * @param width The width of the image.
    * @param height The height of the image.
-   * @return A PlanarYUVLuminanceSource instance.
+   * @return A LuminanceSource instance.
+   */
+  public LuminanceSource buildLuminanceSource(byte[] data, int width, int height) {
+    return buildLuminanceSource(data, width, height, false);
+  }
+
+  /**
+   * Builds a LuminanceSource over the framing rect of a preview frame. In portrait the frame
+   * arrives sideways, so the crop is exposed through a {@link RotatedYUVLuminanceSource} view,
+   * unless the caller only decodes formats that do not care about orientation: then the crop is
+   * read in sensor orientation, which is cheaper, and its coordinates are transposed relative to
+   * the screen (see {@link #isPortrait()}).
+   *
+   * @param data A preview frame, in sensor orientation.
+   * @param width The width of the preview frame.
+   * @param height The height of the preview frame.
+   * @param rotationFree whether a sensor-oriented crop is acceptable in portrait
+   * @return A LuminanceSource instance, or null if there is no framing rect yet.
    */
-  public PlanarYUVLuminanceSource buildLuminanceSource(byte[] data, int width, int height) {
+  public LuminanceSource buildLuminanceSource(byte[] data, int width, int height,
+                                              boolean rotationFree) {
     Rect rect = getFramingRectInPreview();
     if (rect == null) {
       return null;
     }
-    Log.e("camera","width="+width+",height="+height+ ",crop="+rect);
-    PlanarYUVLuminanceSource source = null;
+    Camera2Session theCamera2;
+    synchronized (this) {
+      theCamera2 = camera2;
+    }
+    if (theCamera2 != null) {
+      // Camera2 frames are tokens for images read in place
+      Image.Plane plane = theCamera2.getLuminancePlane(data);
+      return plane == null ? null : buildLuminanceSource(plane.getBuffer(), width, height,
+          plane.getRowStride(), plane.getPixelStride(), rotationFree);
+    }
+    LuminanceSource source = null;
     try{
-      source = new PlanarYUVLuminanceSource(data, width, height, rect.left, rect.top,
-              rect.width(), rect.height(), false);
+      source = PreviewCrop.build(data, width, height, rect.left, rect.top, rect.right,
+          rect.bottom, isPortrait(), rotationFree);
     }catch (Exception ex){
       ex.printStackTrace();
     }
     return source;
   }
 
+  /**
+   * Like {@link #buildLuminanceSource(byte[], int, int, boolean)} for a luminance plane held in a
+   * buffer, direct or memory-mapped ones included, which is read in place instead of being
+   * copied onto the heap first.
+   *
+   * @param plane The luminance plane of a preview frame, in sensor orientation. Its position and
+   *              limit are ignored.
+   * @param width The width of the preview frame.
+   * @param height The height of the preview frame.
+   * @param rowStride bytes from one row of the plane to the next
+   * @param pixelStride bytes from one pixel of the plane to the next
+   * @param rotationFree whether a sensor-oriented crop is acceptable in portrait
+   * @return A LuminanceSource instance, or null if there is no framing rect yet.
+   */
+  public LuminanceSource buildLuminanceSource(ByteBuffer plane, int width, int height,
+                                              int rowStride, int pixelStride,
+                                              boolean rotationFree) {
+    Rect rect = getFramingRectInPreview();
+    if (rect == null) {
+      return null;
+    }
+    try {
+      return PreviewCrop.build(plane, width, height, rowStride, pixelStride, rect.left,
+          rect.top, rect.right, rect.bottom, isPortrait(), rotationFree);
+    } catch (IllegalArgumentException iae) {
+      return null;
+    }
+  }
+
+  /**
+   * @return true if the screen is portrait, in which case preview frames are rotated 90 degrees
+   * relative to the screen.
+   */
+  public boolean isPortrait() {
+    return context.getResources().getConfiguration().orientation
+        == Configuration.ORIENTATION_PORTRAIT;
+  }
+
   /**
    * 设置扫描框与屏幕上方距离
    * @param laserFrameTopMargin
@@ -0,0 +1,229 @@
+package com.uis.fastzxing.camera;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Point;
+import android.os.Build;
+import android.util.Log;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.ReaderException;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.QRCodeReader;
+import com.google.zxing.qrcode.QRCodeWriter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Picks the smallest preview size that still resolves the expected code, instead of the one
+ * closest to the screen. Decode time grows with the pixels inside the framing rect, so on a high
+ * resolution screen the screen-matched preview mostly buys time spent binarizing pixels the code
+ * does not need.
+ *
+ * <p>A size resolves the code when a module of a code filling {@code codeFraction} of the framing
+ * rect spans at least {@code minModulePixels} preview pixels. Sizes whose framing rect would take
+ * longer than {@code targetDecodeMs} to decode, estimated from a cost per pixel, are only used
+ * when no smaller size resolves the code, and never above the largest size within the budget.
+ * The cost per pixel defaults to a mid-range phone and can be measured once per build with
+ * {@link #calibrate(Context)}.</p>
+ */
+public final class DecodeBudgetPreviewSizePolicy implements PreviewSizePolicy {
+
+  private static final String TAG = "DecodeBudgetPolicy";
+
+  /** Decode cost of a mid-range phone, in nanoseconds per framing rect pixel. */
+  public static final float DEFAULT_NANOS_PER_PIXEL = 25.0f;
+
+  private static final String PREFS_NAME = "fastzxing_preview_size";
+  private static final String KEY_NANOS_PER_PIXEL = "nanos_per_pixel/";
+  private static final int CALIBRATION_WIDTH = 640;
+  private static final int CALIBRATION_HEIGHT = 480;
+  private static final int CALIBRATION_WARMUP = 3;
+  private static final int CALIBRATION_RUNS = 8;
+
+  private float targetDecodeMs = 30.0f;
+  private int moduleCount = 57;
+  private float codeFraction = 0.5f;
+  private float minModulePixels = 3.0f;
+  private float nanosPerPixel = DEFAULT_NANOS_PER_PIXEL;
+
+  /**
+   * @param targetDecodeMs decode time per frame to stay within, in milliseconds
+   */
+  public DecodeBudgetPreviewSizePolicy setTargetDecodeMs(float targetDecodeMs) {
+    this.targetDecodeMs = targetDecodeMs;
+    return this;
+  }
+
+  /**
+   * Describes the smallest code the scanner must read.
+   *
+   * @param moduleCount modules across the code, e.g. 57 for a version 10 QR code
+   * @param codeFraction the code width as a fraction of the framing rect width
+   */
+  public DecodeBudgetPreviewSizePolicy setExpectedCode(int moduleCount, float codeFraction) {
+    this.moduleCount = moduleCount;
+    this.codeFraction = codeFraction;
+    return this;
+  }
+
+  /**
+   * @param minModulePixels preview pixels a module needs to decode reliably
+   */
+  public DecodeBudgetPreviewSizePolicy setMinModulePixels(float minModulePixels) {
+    this.minModulePixels = minModulePixels;
+    return this;
+  }
+
+  /**
+   * @param nanosPerPixel decode cost per framing rect pixel, in nanoseconds
+   */
+  public DecodeBudgetPreviewSizePolicy setNanosPerPixel(float nanosPerPixel) {
+    this.nanosPerPixel = nanosPerPixel;
+    return this;
+  }
+
+  public float getNanosPerPixel() {
+    return nanosPerPixel;
+  }
+
+  /**
+   * Uses the decode cost measured on this build, measuring it first if it has not been yet. The
+   * measurement decodes a synthetic frame a few times and takes tens of milliseconds, so call
+   * this off the main thread, before the camera opens.
+   */
+  public DecodeBudgetPreviewSizePolicy calibrate(Context context) {
+    SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    String key = KEY_NANOS_PER_PIXEL + Build.ID;
+    float measured = prefs.getFloat(key, 0.0f);
+    if (measured <= 0.0f) {
+      measured = measureNanosPerPixel();
+      prefs.edit().putFloat(key, measured).apply();
+      Log.i(TAG, "Measured " + measured + " ns per pixel");
+    }
+    nanosPerPixel = measured;
+    return this;
+  }
+
+  /**
+   * Forgets the decode cost measured on this device.
+   */
+  public static void clearCalibration(Context context) {
+    context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit().clear().apply();
+  }
+
+  /**
+   * @return the time to decode a QR code frame, in nanoseconds per pixel
+   */
+  public static float measureNanosPerPixel() {
+    int width = CALIBRATION_WIDTH;
+    int height = CALIBRATION_HEIGHT;
+    byte[] frame = new byte[width * height];
+    Arrays.fill(frame, (byte) 200);
+    Map<EncodeHintType, Object> hints = new EnumMap<>(EncodeHintType.class);
+    hints.put(EncodeHintType.MARGIN, 2);
+    BitMatrix code;
+    try {
+      code = new QRCodeWriter().encode("https://github.com/luiing/FastZxing",
+          BarcodeFormat.QR_CODE, height / 2, height / 2, hints);
+    } catch (WriterException we) {
+      return DEFAULT_NANOS_PER_PIXEL;
+    }
+    int originX = (width - code.getWidth()) / 2;
+    int originY = (height - code.getHeight()) / 2;
+    for (int y = 0; y < code.getHeight(); y++) {
+      for (int x = 0; x < code.getWidth(); x++) {
+        if (code.get(x, y)) {
+          frame[(originY + y) * width + originX + x] = (byte) 30;
+        }
+      }
+    }
+    QRCodeReader reader = new QRCodeReader();
+    long nanos = 0;
+    for (int i = 0; i < CALIBRATION_WARMUP + CALIBRATION_RUNS; i++) {
+      long start = System.nanoTime();
+      try {
+        reader.decode(new BinaryBitmap(new HybridBinarizer(new PlanarYUVLuminanceSource(frame,
+            width, height, 0, 0, width, height, false))));
+      } catch (ReaderException re) {
+        // Still counts, a miss costs about as much
+      } finally {
+        reader.reset();
+      }
+      if (i >= CALIBRATION_WARMUP) {
+        nanos += System.nanoTime() - start;
+      }
+    }
+    return (float) nanos / CALIBRATION_RUNS / (width * height);
+  }
+
+  @Override
+  public Point choosePreviewSize(List<Point> supportedSizes, Point screenResolution,
+                                 Point framingSize) {
+    List<Point> candidates = new ArrayList<>();
+    for (Point size : supportedSizes) {
+      if (CameraConfigurationUtils.isSuitablePreviewSize(size, screenResolution)) {
+        candidates.add(size);
+      }
+    }
+    if (candidates.isEmpty()) {
+      return null;
+    }
+    Collections.sort(candidates, new Comparator<Point>() {
+      @Override
+      public int compare(Point a, Point b) {
+        int areaA = a.x * a.y;
+        int areaB = b.x * b.y;
+        return areaA < areaB ? -1 : (areaA == areaB ? 0 : 1);
+      }
+    });
+    boolean portrait = screenResolution.x < screenResolution.y;
+    Point resolving = null;
+    Point affordable = null;
+    for (Point size : candidates) {
+      // The framing rect mapped into this preview size, as CameraManager maps it
+      int previewWidth = portrait ? size.y : size.x;
+      int previewHeight = portrait ? size.x : size.y;
+      float ratio = Math.min(previewWidth / (float) screenResolution.x,
+          previewHeight / (float) screenResolution.y);
+      float framingWidth = framingSize.x * ratio;
+      float framingHeight = framingSize.y * ratio;
+      float decodeMs = framingWidth * framingHeight * nanosPerPixel / 1.0e6f;
+      float modulePixels = Math.min(framingWidth, framingHeight) * codeFraction / moduleCount;
+      if (decodeMs <= targetDecodeMs) {
+        affordable = size;
+      }
+      if (resolving == null && modulePixels >= minModulePixels) {
+        resolving = size;
+      }
+    }
+    Point chosen;
+    if (affordable == null) {
+      chosen = candidates.get(0);
+    } else if (resolving != null && resolving.x * resolving.y <= affordable.x * affordable.y) {
+      chosen = resolving;
+    } else {
+      chosen = affordable;
+    }
+    return new Point(chosen);
+  }
+
+  @Override
+  public String getKey() {
+    return String.format(Locale.US, "budget:%.1f:%d:%.2f:%.1f:%.1f", targetDecodeMs, moduleCount,
+        codeFraction, minModulePixels, nanosPerPixel);
+  }
+
+}
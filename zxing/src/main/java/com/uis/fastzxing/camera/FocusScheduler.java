@@ -0,0 +1,233 @@
+package com.uis.fastzxing.camera;
+
+import android.hardware.Camera;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.uis.fastzxing.common.ScanMetrics;
+import com.uis.fastzxing.common.ScanTracer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Runs Camera1 auto focus when the decoder's feedback says it would help, rather than on a fixed
+ * timer. A cycle is triggered when frames get clearly less sharp than they were after the last
+ * lock, or when finder patterns keep being found without a code being decoded. Without such
+ * feedback focus is still re-run periodically, with the interval doubling after every cycle that
+ * did not lead to a result. Focus runs on the camera thread, which also receives the auto focus
+ * callbacks; feedback may come from any thread.
+ */
+final class FocusScheduler implements Camera.AutoFocusCallback {
+
+  private static final String TAG = FocusScheduler.class.getSimpleName();
+
+  private static final long MIN_IDLE_INTERVAL_MS = 2000L;
+  private static final long MAX_IDLE_INTERVAL_MS = 8000L;
+  /**
+   * Shortest gap between a cycle ending and feedback triggering the next one.
+   */
+  private static final long MIN_REFOCUS_GAP_MS = 500L;
+  /**
+   * A frame counts as blurry below this share of the sharpest frame since the last lock.
+   */
+  private static final float SHARPNESS_DROP_RATIO = 0.6f;
+  private static final int BLURRY_FRAMES_TO_REFOCUS = 3;
+  private static final int FINDER_MISSES_TO_REFOCUS = 5;
+  private static final Collection<String> FOCUS_MODES_CALLING_AF;
+  static {
+    FOCUS_MODES_CALLING_AF = new ArrayList<>(2);
+    FOCUS_MODES_CALLING_AF.add(Camera.Parameters.FOCUS_MODE_AUTO);
+    FOCUS_MODES_CALLING_AF.add(Camera.Parameters.FOCUS_MODE_MACRO);
+  }
+
+  private final Camera camera;
+  private final Handler cameraHandler;
+  private final boolean useAutoFocus;
+  private final ScanMetrics scanMetrics;
+  private final ScanTracer scanTracer;
+  private boolean stopped;
+  private boolean focusing;
+  private int focusCycle;
+  private long focusStartNanos;
+  private long focusEndMs;
+  private long idleIntervalMs = MIN_IDLE_INTERVAL_MS;
+  private float lockedSharpness;
+  private int blurryFrames;
+  private int finderMisses;
+  private final List<Runnable> pendingChanges = new ArrayList<>();
+
+  private final Runnable focusRunnable = new Runnable() {
+    @Override
+    public void run() {
+      focus();
+    }
+  };
+
+  /**
+   * @param cameraHandler handler of the thread the camera was opened on
+   * @param scanMetrics records time to lock and cycle counts, may be null
+   * @param scanTracer records each focus cycle as an async span, may be null
+   */
+  FocusScheduler(Camera camera, Handler cameraHandler, ScanMetrics scanMetrics,
+                 ScanTracer scanTracer) {
+    this.camera = camera;
+    this.cameraHandler = cameraHandler;
+    this.scanMetrics = scanMetrics;
+    this.scanTracer = scanTracer;
+    String currentFocusMode = camera.getParameters().getFocusMode();
+    useAutoFocus = FOCUS_MODES_CALLING_AF.contains(currentFocusMode);
+    Log.i(TAG, "Current focus mode '" + currentFocusMode + "'; use auto focus? " + useAutoFocus);
+  }
+
+  /**
+   * Focuses once right away, then as feedback and the idle interval decide.
+   */
+  synchronized void start() {
+    if (useAutoFocus && !stopped) {
+      cameraHandler.removeCallbacks(focusRunnable);
+      cameraHandler.post(focusRunnable);
+    }
+  }
+
+  /**
+   * @see FrameSource#onFrameDecoded(boolean, float, int, float)
+   */
+  synchronized void onFrameDecoded(boolean decoded, float sharpness, int finderPoints) {
+    if (!useAutoFocus || stopped || focusing) {
+      return;
+    }
+    if (decoded) {
+      idleIntervalMs = MIN_IDLE_INTERVAL_MS;
+      blurryFrames = 0;
+      finderMisses = 0;
+      return;
+    }
+    if (sharpness >= 0f) {
+      if (sharpness >= lockedSharpness) {
+        lockedSharpness = sharpness;
+        blurryFrames = 0;
+      } else if (sharpness < lockedSharpness * SHARPNESS_DROP_RATIO) {
+        blurryFrames++;
+      } else {
+        blurryFrames = 0;
+      }
+    }
+    if (finderPoints > 0) {
+      finderMisses++;
+    }
+    if ((blurryFrames >= BLURRY_FRAMES_TO_REFOCUS || finderMisses >= FINDER_MISSES_TO_REFOCUS)
+        && SystemClock.uptimeMillis() - focusEndMs >= MIN_REFOCUS_GAP_MS) {
+      blurryFrames = 0;
+      finderMisses = 0;
+      cameraHandler.removeCallbacks(focusRunnable);
+      cameraHandler.post(focusRunnable);
+    }
+  }
+
+  /**
+   * Runs a parameter change on the camera thread between focus cycles, since some drivers reject
+   * {@link Camera#setParameters} while focusing, instead of cancelling focus for it. Changes
+   * waiting for a cycle to end run in order; those still waiting at {@link #stop()} are dropped.
+   */
+  void runBetweenCycles(final Runnable change) {
+    cameraHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        synchronized (FocusScheduler.this) {
+          if (stopped) {
+            return;
+          }
+          if (focusing) {
+            pendingChanges.add(change);
+            return;
+          }
+        }
+        change.run();
+      }
+    });
+  }
+
+  private synchronized void focus() {
+    cameraHandler.removeCallbacks(focusRunnable);
+    if (stopped || focusing) {
+      return;
+    }
+    focusCycle++;
+    if (scanTracer != null) {
+      scanTracer.beginAsync("autoFocus", focusCycle);
+    }
+    try {
+      focusStartNanos = System.nanoTime();
+      camera.autoFocus(this);
+      focusing = true;
+    } catch (RuntimeException re) {
+      if (scanTracer != null) {
+        scanTracer.endAsync("autoFocus", focusCycle);
+      }
+      // Have heard RuntimeException reported in Android 4.0.x+; continue?
+      Log.w(TAG, "Unexpected exception while focusing", re);
+      // Try again later to keep cycle going
+      cameraHandler.postDelayed(focusRunnable, idleIntervalMs);
+    }
+  }
+
+  @Override
+  public void onAutoFocus(boolean success, Camera theCamera) {
+    Runnable[] changes;
+    synchronized (this) {
+      if (!focusing || stopped) {
+        return;
+      }
+      changes = pendingChanges.toArray(new Runnable[pendingChanges.size()]);
+      pendingChanges.clear();
+      onFocusEnded(success);
+    }
+    // Outside the lock: a change may take the camera manager's
+    for (Runnable change : changes) {
+      change.run();
+    }
+  }
+
+  private void onFocusEnded(boolean success) {
+    focusing = false;
+    if (scanTracer != null) {
+      scanTracer.endAsync("autoFocus", focusCycle);
+      scanTracer.instant(success ? "autoFocusSucceeded" : "autoFocusFailed", focusCycle);
+    }
+    if (scanMetrics != null) {
+      scanMetrics.onFocusCycle(System.nanoTime() - focusStartNanos, success);
+    }
+    focusEndMs = SystemClock.uptimeMillis();
+    // The next frames set the sharpness this lock is measured against
+    lockedSharpness = 0f;
+    blurryFrames = 0;
+    finderMisses = 0;
+    cameraHandler.postDelayed(focusRunnable, idleIntervalMs);
+    // Back off until a result resets the interval
+    idleIntervalMs = Math.min(idleIntervalMs * 2, MAX_IDLE_INTERVAL_MS);
+  }
+
+  synchronized void stop() {
+    stopped = true;
+    pendingChanges.clear();
+    cameraHandler.removeCallbacks(focusRunnable);
+    if (focusing && scanTracer != null) {
+      scanTracer.endAsync("autoFocus", focusCycle);
+      scanTracer.instant("autoFocusCancelled", focusCycle);
+    }
+    focusing = false;
+    if (useAutoFocus) {
+      // Doesn't hurt to call this even if not focusing
+      try {
+        camera.cancelAutoFocus();
+      } catch (RuntimeException re) {
+        // Have heard RuntimeException reported in Android 4.0.x+; continue?
+        Log.w(TAG, "Unexpected exception while cancelling focusing", re);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,17 @@
+package com.uis.fastzxing.camera;
+
+/**
+ * Receives every preview frame while {@link CameraManager#startPreviewStream(FrameReceiver)} is
+ * active, on the camera thread owned by {@link CameraManager}.
+ */
+public interface FrameReceiver {
+
+  /**
+   * @param data the preview frame; the receiver owns it until it hands it back with
+   *             {@link CameraManager#releasePreviewFrame(byte[])}
+   * @param width width of the frame
+   * @param height height of the frame
+   */
+  void onPreviewFrame(byte[] data, int width, int height);
+
+}
@@ -0,0 +1,88 @@
+package com.uis.fastzxing.camera;
+
+import android.graphics.Rect;
+import android.os.Handler;
+
+import com.google.zxing.LuminanceSource;
+
+/**
+ * Where the scanner gets its preview frames from. {@link CameraManager} is the camera backed
+ * implementation; {@link PacedFrameSource}s produce frames at a fixed rate without a camera, so
+ * the whole pipeline can be driven deterministically. Frames handed out must come back through
+ * {@link #releasePreviewFrame(byte[])}.
+ */
+public interface FrameSource {
+
+  /**
+   * Starts producing frames. Nothing is delivered until frames are requested or streamed.
+   */
+  void startPreview();
+
+  void stopPreview();
+
+  /**
+   * @param count how many frames may be out at once, takes effect on the next
+   *              {@link #startPreview()}
+   */
+  void setPreviewBufferCount(int count);
+
+  /**
+   * Delivers the next frame once, as {@code message} to {@code handler} with the frame width and
+   * height in arg1 and arg2 and the frame in obj.
+   */
+  void requestPreviewFrame(Handler handler, int message);
+
+  /**
+   * Delivers every frame to the receiver until {@link #stopPreviewStream()}.
+   */
+  void startPreviewStream(FrameReceiver receiver);
+
+  void stopPreviewStream();
+
+  /**
+   * Takes back a frame the source handed out.
+   */
+  void releasePreviewFrame(byte[] data);
+
+  /**
+   * Builds the luminance source of the framing rect of a frame this source handed out.
+   *
+   * @param rotationFree whether a sensor-oriented crop is acceptable in portrait
+   * @return the crop, or null if there is no framing rect
+   * @see CameraManager#buildLuminanceSource(byte[], int, int, boolean)
+   */
+  LuminanceSource buildLuminanceSource(byte[] data, int width, int height, boolean rotationFree);
+
+  /**
+   * @return true if frames are shown rotated 90 degrees clockwise
+   */
+  boolean isPortrait();
+
+  /**
+   * @return the framing rect in frame coordinates as seen on screen, or null
+   */
+  Rect getFramingRectInPreview();
+
+  /**
+   * Called by a decode worker once it is done with a frame, so the source can steer focus and
+   * zoom by what the decoder sees.
+   *
+   * @param decoded whether the frame produced a result
+   * @param sharpness the frame's focus measure, or a negative value if it was not measured
+   * @param finderPoints finder pattern candidates the readers reported in the frame
+   * @param moduleSize mean module size estimated by the QR finder patterns, in frame pixels, or
+   *                   0 if there were none
+   */
+  void onFrameDecoded(boolean decoded, float sharpness, int finderPoints, float moduleSize);
+
+  /**
+   * Called by a decode worker every few frames with the brightness of the framing rect, so the
+   * source can switch the torch.
+   *
+   * @param mean mean luminance, 0 to 255
+   * @param darkFraction share of dark pixels
+   * @param saturatedFraction share of nearly white pixels
+   */
+  void onFrameLuminance(float mean, float darkFraction, float saturatedFraction);
+
+}
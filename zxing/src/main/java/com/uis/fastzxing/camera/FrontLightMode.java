@@ -30,12 +30,22 @@ public enum FrontLightMode {
   /** Always off. */
   OFF;
 
+  /** Key of the preference, holding the name of a mode. */
+  public static final String KEY_FRONT_LIGHT_MODE = "preferences_front_light_mode";
+
   private static FrontLightMode parse(String modeString) {
-    return modeString == null ? OFF : valueOf(modeString);
+    if (modeString == null) {
+      return OFF;
+    }
+    try {
+      return valueOf(modeString);
+    } catch (IllegalArgumentException iae) {
+      return OFF;
+    }
   }
 
   public static FrontLightMode readPref(SharedPreferences sharedPrefs) {
-    return parse( OFF.toString());
+    return parse(sharedPrefs.getString(KEY_FRONT_LIGHT_MODE, OFF.toString()));
   }
 
 }
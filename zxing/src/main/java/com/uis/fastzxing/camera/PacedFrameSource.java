@@ -0,0 +1,248 @@
+package com.uis.fastzxing.camera;
+
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+
+import com.google.zxing.LuminanceSource;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+
+/**
+ * A {@link FrameSource} without a camera: subclasses {@link #render render} NV21 frames, this
+ * class delivers them at a fixed rate from its own thread. Like the camera with a full buffer
+ * queue, a tick finds every frame out with the decoder or nobody asking for a frame and is
+ * skipped, so frame rates and drops behave like a device camera's, only reproducibly.
+ */
+public abstract class PacedFrameSource implements FrameSource {
+
+  /**
+   * A frame buffer with the framing rect it is decoded through. The luminance plane is either
+   * the start of {@code data}, or in {@code buffer}, which is read in place; {@code data} then
+   * only identifies the frame and may be empty.
+   */
+  protected static final class Frame {
+    public byte[] data;
+    public ByteBuffer buffer;
+    public int rowStride;
+    public int pixelStride;
+    public int width;
+    public int height;
+    public final Rect framingRect = new Rect();
+  }
+
+  private final long intervalMs;
+  private final ArrayDeque<Frame> free = new ArrayDeque<>();
+  private final IdentityHashMap<byte[], Frame> frames = new IdentityHashMap<>();
+  private int capacity = 3;
+  private int created;
+  private boolean portrait;
+  private HandlerThread thread;
+  private Handler handler;
+  private Handler previewHandler;
+  private int previewMessage;
+  private FrameReceiver frameReceiver;
+  private long frameIndex;
+  private long skipped;
+  private final Rect lastFramingRect = new Rect();
+  private boolean hasFrame;
+
+  private final Runnable tick = new Runnable() {
+    @Override
+    public void run() {
+      long start = SystemClock.uptimeMillis();
+      deliverFrame();
+      Handler theHandler = handler;
+      if (theHandler != null) {
+        theHandler.postAtTime(this, start + intervalMs);
+      }
+    }
+  };
+
+  /**
+   * @param fps frames per second offered to the decoder
+   */
+  protected PacedFrameSource(float fps) {
+    this.intervalMs = Math.max(1L, Math.round(1000 / fps));
+  }
+
+  /**
+   * @param portrait whether frames are shown rotated 90 degrees clockwise, default false
+   */
+  public synchronized void setPortrait(boolean portrait) {
+    this.portrait = portrait;
+  }
+
+  @Override
+  public synchronized boolean isPortrait() {
+    return portrait;
+  }
+
+  /**
+   * Fills the next frame. The buffer may be replaced if the frame needs a different size.
+   *
+   * @param index frames rendered so far
+   * @return false to skip this tick, e.g. at the end of a recording
+   */
+  protected abstract boolean render(Frame frame, long index);
+
+  @Override
+  public synchronized void startPreview() {
+    if (thread == null) {
+      thread = new HandlerThread(getClass().getSimpleName());
+      thread.start();
+      handler = new Handler(thread.getLooper());
+      handler.post(tick);
+    }
+  }
+
+  @Override
+  public synchronized void stopPreview() {
+    if (thread != null) {
+      handler.removeCallbacks(tick);
+      handler = null;
+      thread.quit();
+      thread = null;
+    }
+    previewHandler = null;
+    frameReceiver = null;
+  }
+
+  @Override
+  public synchronized void setPreviewBufferCount(int count) {
+    capacity = Math.max(2, count);
+  }
+
+  @Override
+  public synchronized void requestPreviewFrame(Handler handler, int message) {
+    previewHandler = handler;
+    previewMessage = message;
+  }
+
+  @Override
+  public synchronized void startPreviewStream(FrameReceiver receiver) {
+    frameReceiver = receiver;
+  }
+
+  @Override
+  public synchronized void stopPreviewStream() {
+    frameReceiver = null;
+  }
+
+  @Override
+  public synchronized void releasePreviewFrame(byte[] data) {
+    Frame frame = frames.get(data);
+    if (frame != null) {
+      free.push(frame);
+    }
+  }
+
+  @Override
+  public LuminanceSource buildLuminanceSource(byte[] data, int width, int height,
+                                              boolean rotationFree) {
+    Rect rect;
+    ByteBuffer buffer;
+    int rowStride;
+    int pixelStride;
+    boolean isPortrait;
+    synchronized (this) {
+      Frame frame = frames.get(data);
+      if (frame == null) {
+        return null;
+      }
+      rect = frame.framingRect;
+      buffer = frame.buffer;
+      rowStride = frame.rowStride;
+      pixelStride = frame.pixelStride;
+      isPortrait = portrait;
+    }
+    try {
+      if (buffer != null) {
+        return PreviewCrop.build(buffer, width, height, rowStride, pixelStride, rect.left,
+            rect.top, rect.right, rect.bottom, isPortrait, rotationFree);
+      }
+      return PreviewCrop.build(data, width, height, rect.left, rect.top, rect.right, rect.bottom,
+          isPortrait, rotationFree);
+    } catch (IllegalArgumentException iae) {
+      return null;
+    }
+  }
+
+  @Override
+  public synchronized Rect getFramingRectInPreview() {
+    return hasFrame ? new Rect(lastFramingRect) : null;
+  }
+
+  @Override
+  public void onFrameDecoded(boolean decoded, float sharpness, int finderPoints,
+                             float moduleSize) {
+    // Nothing to focus or zoom
+  }
+
+  @Override
+  public void onFrameLuminance(float mean, float darkFraction, float saturatedFraction) {
+    // No torch
+  }
+
+  /**
+   * @return ticks skipped because every frame was out with the decoder
+   */
+  public synchronized long getSkippedFrames() {
+    return skipped;
+  }
+
+  private void deliverFrame() {
+    Frame frame;
+    Handler thePreviewHandler;
+    FrameReceiver theFrameReceiver;
+    synchronized (this) {
+      thePreviewHandler = previewHandler;
+      theFrameReceiver = frameReceiver;
+      if (thePreviewHandler == null && theFrameReceiver == null) {
+        return;
+      }
+      frame = free.poll();
+      if (frame == null && created < capacity) {
+        frame = new Frame();
+        created++;
+      }
+      if (frame == null) {
+        skipped++;
+        return;
+      }
+      if (frame.data != null) {
+        frames.remove(frame.data);
+      }
+    }
+    //在本线程绘制，不占用锁
+    boolean rendered = render(frame, frameIndex);
+    synchronized (this) {
+      if (frame.data != null) {
+        frames.put(frame.data, frame);
+      }
+      if (!rendered || frame.data == null) {
+        if (frame.data != null) {
+          free.push(frame);
+        }
+        return;
+      }
+      frameIndex++;
+      lastFramingRect.set(frame.framingRect);
+      hasFrame = true;
+      if (theFrameReceiver == null) {
+        //一次性请求只送一帧
+        previewHandler = null;
+      }
+    }
+    if (theFrameReceiver != null) {
+      theFrameReceiver.onPreviewFrame(frame.data, frame.width, frame.height);
+    } else {
+      thePreviewHandler.obtainMessage(previewMessage, frame.width, frame.height, frame.data)
+          .sendToTarget();
+    }
+  }
+
+}
@@ -0,0 +1,105 @@
+package com.uis.fastzxing.camera;
+
+import android.graphics.ImageFormat;
+import android.hardware.Camera;
+
+/**
+ * A small fixed set of preview-sized buffers handed to the driver through
+ * {@link Camera#addCallbackBuffer(byte[])}. A buffer is either queued in the driver or lent out
+ * to the decoder; lent buffers go back to the driver once the decoder releases them, so steady
+ * state scanning allocates nothing for frame data.
+ */
+final class PreviewBufferPool {
+
+  private byte[][] buffers;
+  private boolean[] lent;
+  private int bufferSize;
+  private Camera camera;
+
+  PreviewBufferPool(int count) {
+    setCapacity(count);
+  }
+
+  /**
+   * Changes the number of buffers; the new set is allocated on the next {@link #attach}. Buffers
+   * of the old set still held by the decoder are simply dropped when released.
+   */
+  synchronized void setCapacity(int count) {
+    if (buffers == null || buffers.length != count) {
+      buffers = new byte[count][];
+      lent = new boolean[count];
+      bufferSize = 0;
+    }
+  }
+
+  /**
+   * Queues every buffer not currently held by the decoder into the camera. Buffers are
+   * (re)allocated only when the preview size changes.
+   */
+  synchronized void attach(Camera camera, int width, int height) {
+    int size = width * height * ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8;
+    if (size != bufferSize) {
+      bufferSize = size;
+      for (int i = 0; i < buffers.length; i++) {
+        buffers[i] = new byte[size];
+        lent[i] = false;
+      }
+    }
+    this.camera = camera;
+    for (int i = 0; i < buffers.length; i++) {
+      if (!lent[i]) {
+        camera.addCallbackBuffer(buffers[i]);
+      }
+    }
+  }
+
+  /**
+   * The camera dropped its queue (preview stopped); buffers released from now on stay idle
+   * until the next {@link #attach}.
+   */
+  synchronized void detach() {
+    camera = null;
+  }
+
+  /**
+   * Marks a delivered buffer as owned by the decoder.
+   */
+  synchronized void lend(byte[] data) {
+    int index = indexOf(data);
+    if (index >= 0) {
+      lent[index] = true;
+    }
+  }
+
+  /**
+   * Gives a delivered buffer straight back to the driver, e.g. when no handler wants the frame.
+   */
+  synchronized void requeue(byte[] data) {
+    if (camera != null && indexOf(data) >= 0) {
+      camera.addCallbackBuffer(data);
+    }
+  }
+
+  /**
+   * Returns a buffer previously {@link #lend lent} to the decoder.
+   */
+  synchronized void release(byte[] data) {
+    int index = indexOf(data);
+    if (index >= 0 && lent[index]) {
+      lent[index] = false;
+      if (camera != null) {
+        camera.addCallbackBuffer(data);
+      }
+    }
+  }
+
+  private int indexOf(byte[] data) {
+    for (int i = 0; i < buffers.length; i++) {
+      if (buffers[i] == data) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+}
@@ -20,18 +20,23 @@ import android.graphics.Point;
 import android.hardware.Camera;
 import android.os.Handler;
 import android.os.Message;
-import android.util.Log;
 
-final class PreviewCallback implements Camera.PreviewCallback {
+import com.uis.fastzxing.common.ScanMetrics;
+import com.uis.fastzxing.common.ScanTracer;
 
-  private static final String TAG = PreviewCallback.class.getSimpleName();
+final class PreviewCallback implements Camera.PreviewCallback {
 
   private final CameraConfigurationManager configManager;
+  private final PreviewBufferPool bufferPool;
   private Handler previewHandler;
   private int previewMessage;
+  private FrameReceiver frameReceiver;
+  private ScanMetrics scanMetrics;
+  private ScanTracer scanTracer;
 
-  PreviewCallback(CameraConfigurationManager configManager) {
+  PreviewCallback(CameraConfigurationManager configManager, PreviewBufferPool bufferPool) {
     this.configManager = configManager;
+    this.bufferPool = bufferPool;
   }
 
   void setHandler(Handler previewHandler, int previewMessage) {
@@ -39,17 +44,54 @@ final class PreviewCallback implements Camera.PreviewCallback {
     this.previewMessage = previewMessage;
   }
 
+  void setFrameReceiver(FrameReceiver frameReceiver) {
+    this.frameReceiver = frameReceiver;
+  }
+
+  void setScanMetrics(ScanMetrics scanMetrics) {
+    this.scanMetrics = scanMetrics;
+  }
+
+  void setScanTracer(ScanTracer scanTracer) {
+    this.scanTracer = scanTracer;
+  }
+
   @Override
   public void onPreviewFrame(byte[] data, Camera camera) {
+    ScanTracer theScanTracer = scanTracer;
+    if (theScanTracer == null) {
+      deliverFrame(data);
+      return;
+    }
+    theScanTracer.begin("onPreviewFrame", System.identityHashCode(data));
+    try {
+      deliverFrame(data);
+    } finally {
+      theScanTracer.end("onPreviewFrame");
+    }
+  }
+
+  private void deliverFrame(byte[] data) {
     Point cameraResolution = configManager.getCameraResolution();
+    FrameReceiver theFrameReceiver = frameReceiver;
     Handler thePreviewHandler = previewHandler;
-    if (cameraResolution != null && thePreviewHandler != null) {
+    ScanMetrics theScanMetrics = scanMetrics;
+    if (theScanMetrics != null && cameraResolution != null
+        && (theFrameReceiver != null || thePreviewHandler != null)) {
+      theScanMetrics.onFrameCaptured(data, System.nanoTime());
+    }
+    if (cameraResolution != null && theFrameReceiver != null) {
+      bufferPool.lend(data);
+      theFrameReceiver.onPreviewFrame(data, cameraResolution.x, cameraResolution.y);
+    } else if (cameraResolution != null && thePreviewHandler != null) {
+      bufferPool.lend(data);
       Message message = thePreviewHandler.obtainMessage(previewMessage, cameraResolution.x,
           cameraResolution.y, data);
       message.sendToTarget();
       previewHandler = null;
     } else {
-      Log.d(TAG, "Got preview callback, but no handler or resolution available");
+      // Nobody asked for this frame, hand the buffer straight back to the driver
+      bufferPool.requeue(data);
     }
   }
 
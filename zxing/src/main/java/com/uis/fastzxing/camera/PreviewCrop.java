@@ -0,0 +1,70 @@
+package com.uis.fastzxing.camera;
+
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.PlanarYUVLuminanceSource;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Builds the luminance source of a framing rect from a raw preview frame. Kept free of Android
+ * classes so recorded frames can be cropped exactly like live ones off the device.
+ */
+public final class PreviewCrop {
+
+  private PreviewCrop() {
+  }
+
+  /**
+   * @param data a preview frame, in sensor orientation
+   * @param width width of the preview frame
+   * @param height height of the preview frame
+   * @param left left of the framing rect in preview coordinates as seen on screen
+   * @param top top of the framing rect
+   * @param right right of the framing rect
+   * @param bottom bottom of the framing rect
+   * @param portrait whether the frame is shown rotated 90 degrees clockwise
+   * @param rotationFree whether a sensor-oriented crop is acceptable in portrait
+   * @return the crop, see {@link CameraManager#buildLuminanceSource(byte[], int, int, boolean)}
+   * @throws IllegalArgumentException if the rect does not fit the frame
+   */
+  public static LuminanceSource build(byte[] data, int width, int height, int left, int top,
+                                      int right, int bottom, boolean portrait,
+                                      boolean rotationFree) {
+    if (!portrait) {
+      return new PlanarYUVLuminanceSource(data, width, height, left, top,
+          right - left, bottom - top, false);
+    }
+    if (rotationFree) {
+      // Screen pixel (x, y) is sensor pixel (y, height - 1 - x)
+      return new PlanarYUVLuminanceSource(data, width, height, top, height - right,
+          bottom - top, right - left, false);
+    }
+    return new RotatedYUVLuminanceSource(data, width, height, left, top,
+        right - left, bottom - top);
+  }
+
+  /**
+   * Like {@link #build(byte[], int, int, int, int, int, int, boolean, boolean)} for a luminance
+   * plane in a buffer, which is read in place.
+   *
+   * @param plane the luminance plane, in sensor orientation
+   * @param rowStride bytes from one row of the plane to the next
+   * @param pixelStride bytes from one pixel of the plane to the next
+   * @throws IllegalArgumentException if the rect does not fit the plane
+   */
+  public static LuminanceSource build(ByteBuffer plane, int width, int height, int rowStride,
+                                      int pixelStride, int left, int top, int right, int bottom,
+                                      boolean portrait, boolean rotationFree) {
+    if (!portrait) {
+      return new ByteBufferLuminanceSource(plane, width, height, rowStride, pixelStride, left,
+          top, right - left, bottom - top, false);
+    }
+    if (rotationFree) {
+      return new ByteBufferLuminanceSource(plane, width, height, rowStride, pixelStride, top,
+          height - right, bottom - top, right - left, false);
+    }
+    return new ByteBufferLuminanceSource(plane, width, height, rowStride, pixelStride, left, top,
+        right - left, bottom - top, true);
+  }
+
+}
@@ -0,0 +1,28 @@
+package com.uis.fastzxing.camera;
+
+import android.graphics.Point;
+
+import java.util.List;
+
+/**
+ * Picks the preview size the camera delivers. Without a policy the size closest to the screen
+ * resolution is used; see {@link DecodeBudgetPreviewSizePolicy} for one sized to what the
+ * decoder needs instead.
+ */
+public interface PreviewSizePolicy {
+
+  /**
+   * @param supportedSizes preview sizes the camera offers, in sensor orientation
+   * @param screenResolution the screen size in pixels
+   * @param framingSize the framing rect size on screen
+   * @return one of the supported sizes, or null for the size matching the screen
+   */
+  Point choosePreviewSize(List<Point> supportedSizes, Point screenResolution, Point framingSize);
+
+  /**
+   * @return a string that changes whenever the policy would choose differently given the same
+   * sizes, so sizes cached under other settings are not reused
+   */
+  String getKey();
+
+}
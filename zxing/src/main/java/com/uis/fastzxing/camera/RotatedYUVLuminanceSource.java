@@ -0,0 +1,100 @@
+package com.uis.fastzxing.camera;
+
+import com.google.zxing.LuminanceSource;
+
+/**
+ * A view of a crop of a YUV preview frame as if the frame had been rotated 90 degrees clockwise,
+ * which is how a back camera frame looks on a portrait screen. Only the Y plane inside the crop
+ * is ever read, and only when {@link #getRow(int, byte[])} or {@link #getMatrix()} asks for it,
+ * so no full-frame rotated copy is needed.
+ *
+ * <p>Crop coordinates are in the rotated image, whose width is the frame height and whose height
+ * is the frame width. Rotated pixel (x, y) is frame pixel (y, dataHeight - 1 - x).</p>
+ */
+public final class RotatedYUVLuminanceSource extends LuminanceSource {
+
+  private final byte[] yuvData;
+  private final int dataWidth;
+  private final int dataHeight;
+  private final int left;
+  private final int top;
+
+  /**
+   * @param yuvData the preview frame, in sensor orientation
+   * @param dataWidth width of the preview frame
+   * @param dataHeight height of the preview frame
+   * @param left left of the crop in the rotated image
+   * @param top top of the crop in the rotated image
+   * @param width width of the crop in the rotated image
+   * @param height height of the crop in the rotated image
+   */
+  public RotatedYUVLuminanceSource(byte[] yuvData,
+                                   int dataWidth,
+                                   int dataHeight,
+                                   int left,
+                                   int top,
+                                   int width,
+                                   int height) {
+    super(width, height);
+    if (left < 0 || top < 0 || left + width > dataHeight || top + height > dataWidth) {
+      throw new IllegalArgumentException("Crop rectangle does not fit within image data.");
+    }
+    this.yuvData = yuvData;
+    this.dataWidth = dataWidth;
+    this.dataHeight = dataHeight;
+    this.left = left;
+    this.top = top;
+  }
+
+  @Override
+  public byte[] getRow(int y, byte[] row) {
+    if (y < 0 || y >= getHeight()) {
+      throw new IllegalArgumentException("Requested row is outside the image: " + y);
+    }
+    int width = getWidth();
+    if (row == null || row.length < width) {
+      row = new byte[width];
+    }
+    // A rotated row is a frame column, walked bottom to top
+    int offset = (dataHeight - 1 - left) * dataWidth + top + y;
+    for (int x = 0; x < width; x++) {
+      row[x] = yuvData[offset];
+      offset -= dataWidth;
+    }
+    return row;
+  }
+
+  @Override
+  public byte[] getMatrix() {
+    int width = getWidth();
+    int height = getHeight();
+    byte[] matrix = new byte[width * height];
+    // Read the frame row by row so the source side stays sequential
+    for (int x = 0; x < width; x++) {
+      int inputOffset = (dataHeight - 1 - left - x) * dataWidth + top;
+      int outputOffset = x;
+      for (int y = 0; y < height; y++) {
+        matrix[outputOffset] = yuvData[inputOffset + y];
+        outputOffset += width;
+      }
+    }
+    return matrix;
+  }
+
+  @Override
+  public boolean isCropSupported() {
+    return true;
+  }
+
+  @Override
+  public LuminanceSource crop(int left, int top, int width, int height) {
+    return new RotatedYUVLuminanceSource(yuvData,
+                                         dataWidth,
+                                         dataHeight,
+                                         this.left + left,
+                                         this.top + top,
+                                         width,
+                                         height);
+  }
+
+}
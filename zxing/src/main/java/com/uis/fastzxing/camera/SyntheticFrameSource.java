@@ -0,0 +1,139 @@
+package com.uis.fastzxing.camera;
+
+import android.graphics.Rect;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.MultiFormatWriter;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Renders a generated QR or 1D code into NV21 frames at a fixed rate, so the scanner can be
+ * exercised and timed on emulators and in CI without a camera or a printed code. The code
+ * drifts by a few pixels from frame to frame so consecutive frames are not identical.
+ */
+public final class SyntheticFrameSource extends PacedFrameSource {
+
+  private static final byte BACKGROUND = (byte) 200;
+  private static final byte INK = (byte) 30;
+  private static final byte NEUTRAL_CHROMA = (byte) 128;
+  private static final int DRIFT = 4;
+
+  private final int width;
+  private final int height;
+  private final Rect framingRect;
+  private BitMatrix code;
+
+  /**
+   * Frames of the given size with the framing rect covering the middle two thirds of the screen.
+   *
+   * @param width width of the frame in sensor orientation
+   * @param height height of the frame in sensor orientation
+   */
+  public SyntheticFrameSource(int width, int height, float fps) {
+    this(width, height, fps, null);
+  }
+
+  /**
+   * @param framingRect the framing rect in frame coordinates as seen on screen, or null for the
+   *                    middle two thirds
+   */
+  public SyntheticFrameSource(int width, int height, float fps, Rect framingRect) {
+    super(fps);
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Empty frame: " + width + 'x' + height);
+    }
+    this.width = width;
+    this.height = height;
+    this.framingRect = framingRect == null ? null : new Rect(framingRect);
+  }
+
+  /**
+   * Sets the code drawn in the middle of every following frame.
+   *
+   * @param format a format {@link MultiFormatWriter} can encode
+   * @param contents what the code reads as
+   * @param codeWidth width of the code in pixels, quiet zone included
+   * @param codeHeight height of the code in pixels, quiet zone included
+   * @throws IllegalArgumentException if the contents cannot be encoded in that format
+   */
+  public void setCode(BarcodeFormat format, String contents, int codeWidth, int codeHeight) {
+    Map<EncodeHintType, Object> hints = new EnumMap<>(EncodeHintType.class);
+    hints.put(EncodeHintType.MARGIN, 2);
+    BitMatrix matrix;
+    try {
+      matrix = new MultiFormatWriter().encode(contents, format, codeWidth, codeHeight, hints);
+    } catch (WriterException we) {
+      throw new IllegalArgumentException(we);
+    }
+    synchronized (this) {
+      code = matrix;
+    }
+  }
+
+  /**
+   * Draws frames without a code.
+   */
+  public synchronized void clearCode() {
+    code = null;
+  }
+
+  @Override
+  protected boolean render(Frame frame, long index) {
+    int ySize = width * height;
+    int length = ySize + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+    if (frame.data == null || frame.data.length != length) {
+      frame.data = new byte[length];
+      Arrays.fill(frame.data, ySize, length, NEUTRAL_CHROMA);
+    }
+    frame.width = width;
+    frame.height = height;
+    BitMatrix matrix;
+    synchronized (this) {
+      matrix = code;
+    }
+    boolean portrait = isPortrait();
+    int screenWidth = portrait ? height : width;
+    int screenHeight = portrait ? width : height;
+    if (framingRect != null) {
+      frame.framingRect.set(framingRect);
+    } else {
+      frame.framingRect.set(screenWidth / 6, screenHeight / 6,
+          screenWidth - screenWidth / 6, screenHeight - screenHeight / 6);
+    }
+    byte[] data = frame.data;
+    Arrays.fill(data, 0, ySize, BACKGROUND);
+    if (matrix == null) {
+      return true;
+    }
+    // The code is drawn upright as seen on screen
+    int drift = (int) (index % (2 * DRIFT + 1)) - DRIFT;
+    int codeWidth = Math.min(matrix.getWidth(), screenWidth);
+    int codeHeight = Math.min(matrix.getHeight(), screenHeight);
+    int originX = Math.max(0, Math.min(screenWidth - codeWidth,
+        (screenWidth - codeWidth) / 2 + drift));
+    int originY = Math.max(0, Math.min(screenHeight - codeHeight,
+        (screenHeight - codeHeight) / 2 + drift));
+    for (int y = 0; y < codeHeight; y++) {
+      for (int x = 0; x < codeWidth; x++) {
+        if (!matrix.get(x, y)) {
+          continue;
+        }
+        int screenX = originX + x;
+        int screenY = originY + y;
+        // Screen pixel (x, y) is sensor pixel (y, height - 1 - x) in portrait
+        int offset = portrait
+            ? (height - 1 - screenX) * width + screenY
+            : screenY * width + screenX;
+        data[offset] = INK;
+      }
+    }
+    return true;
+  }
+
+}
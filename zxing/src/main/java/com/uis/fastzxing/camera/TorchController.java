@@ -0,0 +1,64 @@
+package com.uis.fastzxing.camera;
+
+/**
+ * Decides when {@link FrontLightMode#AUTO} switches the torch, from the brightness of the
+ * framing rect. Auto exposure keeps the mean luminance up until it runs out of range, so a dark
+ * mean with most pixels dark means the scene is too dark to decode; with the torch on, a bright
+ * mean or a patch of saturated pixels means it is not needed or causes glare. A condition has to
+ * hold for {@link #SUSTAIN_MS} and the torch stays put for a dwell time after every switch; the
+ * dwell doubles when switches come close together, so a scene on the edge does not flicker.
+ */
+final class TorchController {
+
+  private static final float DARK_MEAN = 50.0f;
+  private static final float DARK_FRACTION = 0.6f;
+  private static final float BRIGHT_MEAN = 170.0f;
+  private static final float GLARE_FRACTION = 0.15f;
+  private static final long SUSTAIN_MS = 1000L;
+  private static final long MIN_DWELL_MS = 3000L;
+  private static final long MAX_DWELL_MS = 30000L;
+
+  private long conditionSinceMs = -1L;
+  private long lastSwitchMs;
+  private long dwellMs = MIN_DWELL_MS;
+
+  /**
+   * Starts over, e.g. when the camera opens; the first switch waits a dwell time so auto
+   * exposure can settle.
+   */
+  synchronized void reset(long nowMs) {
+    conditionSinceMs = -1L;
+    lastSwitchMs = nowMs;
+    dwellMs = MIN_DWELL_MS;
+  }
+
+  /**
+   * @param mean mean luminance of the framing rect, 0 to 255
+   * @param darkFraction share of dark pixels
+   * @param saturatedFraction share of nearly white pixels
+   * @param torchOn whether the torch is on now
+   * @return whether the torch should be on
+   */
+  synchronized boolean update(float mean, float darkFraction, float saturatedFraction,
+                              boolean torchOn, long nowMs) {
+    boolean wantsSwitch = torchOn
+        ? mean > BRIGHT_MEAN || saturatedFraction > GLARE_FRACTION
+        : mean < DARK_MEAN && darkFraction > DARK_FRACTION;
+    if (!wantsSwitch) {
+      conditionSinceMs = -1L;
+      return torchOn;
+    }
+    if (conditionSinceMs < 0) {
+      conditionSinceMs = nowMs;
+    }
+    long sinceSwitch = nowMs - lastSwitchMs;
+    if (nowMs - conditionSinceMs < SUSTAIN_MS || sinceSwitch < dwellMs) {
+      return torchOn;
+    }
+    dwellMs = sinceSwitch < 2 * dwellMs ? Math.min(dwellMs * 2, MAX_DWELL_MS) : MIN_DWELL_MS;
+    conditionSinceMs = -1L;
+    lastSwitchMs = nowMs;
+    return !torchOn;
+  }
+
+}
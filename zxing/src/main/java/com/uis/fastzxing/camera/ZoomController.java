@@ -0,0 +1,76 @@
+package com.uis.fastzxing.camera;
+
+/**
+ * Zooms in on codes whose modules are too small to decode. The module size comes from the QR
+ * finder patterns the readers report: when several frames in a row fail with modules under
+ * {@link #MIN_MODULE_PIXELS}, the zoom steps toward {@link #TARGET_MODULE_PIXELS}, by at most
+ * {@link #MAX_STEP} at a time. Frames shortly after a step are ignored, as they may still be
+ * from before it. The zoom goes back to 1 after a result, or when nothing was decoded for
+ * {@link #TIMEOUT_MS} after the last step.
+ */
+final class ZoomController {
+
+  private static final float MIN_MODULE_PIXELS = 2.5f;
+  private static final float TARGET_MODULE_PIXELS = 4.0f;
+  private static final float MAX_STEP = 1.6f;
+  /**
+   * Digital zoom beyond this only magnifies noise.
+   */
+  private static final float MAX_ZOOM = 4.0f;
+  private static final int SMALL_FRAMES_TO_ZOOM = 3;
+  private static final long SETTLE_MS = 400L;
+  private static final long TIMEOUT_MS = 5000L;
+
+  private float maxZoom = 1.0f;
+  private float zoom = 1.0f;
+  private long lastStepMs;
+  private int smallFrames;
+
+  /**
+   * Starts over at no zoom, e.g. when the preview starts.
+   *
+   * @param maxZoom the largest zoom ratio the camera supports
+   */
+  synchronized void reset(float maxZoom, long nowMs) {
+    this.maxZoom = Math.max(1.0f, Math.min(maxZoom, MAX_ZOOM));
+    zoom = 1.0f;
+    lastStepMs = nowMs;
+    smallFrames = 0;
+  }
+
+  /**
+   * @param decoded whether the frame produced a result
+   * @param moduleSize module size estimated in the frame, or 0 if unknown
+   * @return the zoom ratio to use
+   */
+  synchronized float update(boolean decoded, float moduleSize, long nowMs) {
+    if (decoded) {
+      smallFrames = 0;
+      zoom = 1.0f;
+      return zoom;
+    }
+    if (nowMs - lastStepMs < SETTLE_MS) {
+      return zoom;
+    }
+    if (zoom > 1.0f && nowMs - lastStepMs >= TIMEOUT_MS) {
+      smallFrames = 0;
+      zoom = 1.0f;
+      lastStepMs = nowMs;
+      return zoom;
+    }
+    if (moduleSize <= 0f) {
+      return zoom;
+    }
+    if (moduleSize >= MIN_MODULE_PIXELS) {
+      smallFrames = 0;
+      return zoom;
+    }
+    if (++smallFrames >= SMALL_FRAMES_TO_ZOOM && zoom < maxZoom) {
+      smallFrames = 0;
+      zoom = Math.min(zoom * Math.min(TARGET_MODULE_PIXELS / moduleSize, MAX_STEP), maxZoom);
+      lastStepMs = nowMs;
+    }
+    return zoom;
+  }
+
+}
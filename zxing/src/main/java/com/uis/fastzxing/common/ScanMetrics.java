@@ -0,0 +1,437 @@
+package com.uis.fastzxing.common;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Where the time of a scan goes. Each frame is stamped with {@link System#nanoTime()} when the
+ * camera delivers it, when a decode worker picks it up, when its luminance source is built, when
+ * the readers are done with it and, for a result, when the result reaches the UI thread. The gaps
+ * between those stamps are the {@link Stage}s, each kept in a latency histogram with
+ * exponentially growing buckets. Auto focus cycles are kept the same way, as
+ * {@link Stage#FOCUS}.
+ *
+ * <p>Histograms, frame rates and the success rate are rolling: they cover the current and the
+ * previous {@link #WINDOW_MS} window. Frame counts are totals since {@link #reset()}.</p>
+ *
+ * <p>Recording is thread safe and allocates nothing, so it can stay on in production. Frames are
+ * matched between threads by the identity of their buffer.</p>
+ */
+public final class ScanMetrics {
+
+    /**
+     * A timestamp that was not recorded.
+     */
+    public static final long UNKNOWN = Long.MIN_VALUE;
+
+    /**
+     * Length of a rolling window.
+     */
+    public static final long WINDOW_MS = 5000L;
+
+    public enum Stage {
+        /**
+         * From the camera delivering a frame to a decode worker picking it up.
+         */
+        QUEUE,
+        /**
+         * Building the luminance source of the framing rect.
+         */
+        BUILD,
+        /**
+         * Frame filters, binarization and the readers, until they give up or return a result.
+         */
+        DECODE,
+        /**
+         * From the readers returning a result to the result reaching the UI thread.
+         */
+        DELIVER,
+        /**
+         * From the camera delivering a frame to its result reaching the UI thread.
+         */
+        TOTAL,
+        /**
+         * Not a frame stage: from requesting auto focus to the lens locking, for cycles that
+         * locked.
+         */
+        FOCUS
+    }
+
+    private static final long WINDOW_NANOS = WINDOW_MS * 1000000L;
+    private static final int BUCKET_COUNT = 24;
+    /**
+     * Upper bounds of the buckets: 0.25 ms growing by a factor of sqrt(2), the last bucket has
+     * none.
+     */
+    private static final long[] BUCKET_BOUNDS = new long[BUCKET_COUNT - 1];
+    private static final int CAPTURE_SLOTS = 16;
+
+    private static final int CAPTURED = 0;
+    private static final int DECODED = 1;
+    private static final int SUCCEEDED = 2;
+    private static final int COUNTER_COUNT = 3;
+    private static final int FAIL_REASON_COUNT = 3;
+
+    static {
+        for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+            BUCKET_BOUNDS[i] = (long) (250000L * Math.pow(Math.sqrt(2), i));
+        }
+    }
+
+    //当前与上一个窗口
+    private final long[][][] buckets = new long[2][Stage.values().length][BUCKET_COUNT];
+    private final long[][] sums = new long[2][Stage.values().length];
+    private final long[][] counters = new long[2][COUNTER_COUNT];
+    private final long[] windowStart = {UNKNOWN, UNKNOWN};
+    private int current;
+
+    private final int[] captureKeys = new int[CAPTURE_SLOTS];
+    private final long[] captureTimes = new long[CAPTURE_SLOTS];
+    private int nextCaptureSlot;
+
+    private long captured;
+    private long decoded;
+    private long dropped;
+    private long succeeded;
+    private final long[] failures = new long[FAIL_REASON_COUNT];
+    private long focusCycles;
+    private long focusLocks;
+
+    public ScanMetrics() {
+        reset();
+    }
+
+    /**
+     * Called by the camera for every frame it hands on for decoding.
+     */
+    public synchronized void onFrameCaptured(byte[] data, long nowNanos) {
+        rotate(nowNanos);
+        captureKeys[nextCaptureSlot] = System.identityHashCode(data);
+        captureTimes[nextCaptureSlot] = nowNanos;
+        nextCaptureSlot = (nextCaptureSlot + 1) % CAPTURE_SLOTS;
+        captured++;
+        counters[current][CAPTURED]++;
+    }
+
+    /**
+     * @return when the camera delivered the frame, or {@link #UNKNOWN}; each capture is only
+     * returned once
+     */
+    public synchronized long takeCaptureTime(byte[] data) {
+        int key = System.identityHashCode(data);
+        //从最近一帧往前找
+        for (int i = 1; i <= CAPTURE_SLOTS; i++) {
+            int slot = (nextCaptureSlot - i + CAPTURE_SLOTS) % CAPTURE_SLOTS;
+            if (captureTimes[slot] != UNKNOWN && captureKeys[slot] == key) {
+                long time = captureTimes[slot];
+                captureTimes[slot] = UNKNOWN;
+                return time;
+            }
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * Called when a frame is replaced by a newer one before any worker picked it up.
+     */
+    public synchronized void onFrameDropped() {
+        dropped++;
+    }
+
+    /**
+     * Called by a decode worker once it is done with a frame.
+     *
+     * @param captureNanos when the camera delivered the frame, or {@link #UNKNOWN}
+     * @param startNanos   when the worker picked the frame up
+     * @param builtNanos   when its luminance source was built
+     * @param decodedNanos when the readers were done
+     * @param success      whether the frame produced a result
+     * @param failReason   a {@link Scanner.FailReason} if it did not
+     */
+    public synchronized void onFrameDecoded(long captureNanos, long startNanos, long builtNanos,
+                                            long decodedNanos, boolean success, int failReason) {
+        rotate(decodedNanos);
+        if (captureNanos != UNKNOWN) {
+            record(Stage.QUEUE, startNanos - captureNanos);
+        }
+        record(Stage.BUILD, builtNanos - startNanos);
+        record(Stage.DECODE, decodedNanos - builtNanos);
+        decoded++;
+        counters[current][DECODED]++;
+        if (success) {
+            succeeded++;
+            counters[current][SUCCEEDED]++;
+        } else if (failReason >= 0 && failReason < FAIL_REASON_COUNT) {
+            failures[failReason]++;
+        }
+    }
+
+    /**
+     * Called on the UI thread when a result arrives.
+     *
+     * @param captureNanos when the camera delivered the frame, or {@link #UNKNOWN}
+     * @param decodedNanos when the readers returned the result
+     */
+    public synchronized void onResultDelivered(long captureNanos, long decodedNanos,
+                                               long nowNanos) {
+        rotate(nowNanos);
+        record(Stage.DELIVER, nowNanos - decodedNanos);
+        if (captureNanos != UNKNOWN) {
+            record(Stage.TOTAL, nowNanos - captureNanos);
+        }
+    }
+
+    /**
+     * Called by the camera when an auto focus cycle ends.
+     *
+     * @param durationNanos from requesting focus to the camera reporting back
+     * @param locked        whether the lens locked
+     */
+    public synchronized void onFocusCycle(long durationNanos, boolean locked) {
+        rotate(System.nanoTime());
+        focusCycles++;
+        if (locked) {
+            focusLocks++;
+            record(Stage.FOCUS, durationNanos);
+        }
+    }
+
+    /**
+     * @param quantile between 0 and 1, e.g. 0.5 for the median
+     * @return upper bound of the histogram bucket holding the quantile, in milliseconds, or 0 if
+     * the stage has no samples in the rolling window
+     */
+    public synchronized float getPercentileMs(Stage stage, float quantile) {
+        rotate(System.nanoTime());
+        long[] now = buckets[current][stage.ordinal()];
+        long[] before = buckets[1 - current][stage.ordinal()];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += now[i] + before[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT - 1; i++) {
+            seen += now[i] + before[i];
+            if (seen >= target) {
+                return BUCKET_BOUNDS[i] / 1000000f;
+            }
+        }
+        return Float.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @return mean latency of the stage in the rolling window, in milliseconds
+     */
+    public synchronized float getMeanMs(Stage stage) {
+        rotate(System.nanoTime());
+        long count = getSampleCount(stage);
+        if (count == 0) {
+            return 0;
+        }
+        long sum = sums[current][stage.ordinal()] + sums[1 - current][stage.ordinal()];
+        return sum / 1000000f / count;
+    }
+
+    /**
+     * @return samples of the stage in the rolling window
+     */
+    public synchronized long getSampleCount(Stage stage) {
+        rotate(System.nanoTime());
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += buckets[current][stage.ordinal()][i] + buckets[1 - current][stage.ordinal()][i];
+        }
+        return count;
+    }
+
+    /**
+     * Copies the rolling histogram of a stage without allocating.
+     *
+     * @param counts receives {@link #getBucketCount()} sample counts
+     */
+    public synchronized void getHistogram(Stage stage, long[] counts) {
+        rotate(System.nanoTime());
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets[current][stage.ordinal()][i]
+                    + buckets[1 - current][stage.ordinal()][i];
+        }
+    }
+
+    public static int getBucketCount() {
+        return BUCKET_COUNT;
+    }
+
+    /**
+     * @return upper bound of a histogram bucket in milliseconds; the last bucket is unbounded
+     */
+    public static float getBucketUpperBoundMs(int bucket) {
+        return bucket < BUCKET_BOUNDS.length
+                ? BUCKET_BOUNDS[bucket] / 1000000f : Float.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @return frames the camera handed on for decoding per second, in the rolling window
+     */
+    public synchronized float getCaptureFps() {
+        return getRate(CAPTURED);
+    }
+
+    /**
+     * @return frames the decode workers finished per second, in the rolling window
+     */
+    public synchronized float getEffectiveFps() {
+        return getRate(DECODED);
+    }
+
+    /**
+     * @return share of decoded frames that produced a result, in the rolling window
+     */
+    public synchronized float getSuccessRate() {
+        rotate(System.nanoTime());
+        long frames = counters[current][DECODED] + counters[1 - current][DECODED];
+        long hits = counters[current][SUCCEEDED] + counters[1 - current][SUCCEEDED];
+        return frames == 0 ? 0 : (float) hits / frames;
+    }
+
+    public synchronized long getCapturedFrames() {
+        return captured;
+    }
+
+    public synchronized long getDecodedFrames() {
+        return decoded;
+    }
+
+    public synchronized long getDroppedFrames() {
+        return dropped;
+    }
+
+    public synchronized long getSucceededFrames() {
+        return succeeded;
+    }
+
+    /**
+     * @return auto focus cycles, locked or not
+     */
+    public synchronized long getFocusCycles() {
+        return focusCycles;
+    }
+
+    /**
+     * @return auto focus cycles that locked
+     */
+    public synchronized long getFocusLocks() {
+        return focusLocks;
+    }
+
+    /**
+     * @return auto focus cycles per frame that produced a result, or the cycles so far if none
+     * did yet
+     */
+    public synchronized float getFocusCyclesPerSuccess() {
+        return (float) focusCycles / Math.max(1, succeeded);
+    }
+
+    /**
+     * @param failReason a {@link Scanner.FailReason}
+     * @return frames that failed for that reason
+     */
+    public synchronized long getFailedFrames(int failReason) {
+        return failReason >= 0 && failReason < FAIL_REASON_COUNT ? failures[failReason] : 0;
+    }
+
+    public synchronized void reset() {
+        for (int w = 0; w < 2; w++) {
+            for (long[] stageBuckets : buckets[w]) {
+                Arrays.fill(stageBuckets, 0);
+            }
+            Arrays.fill(sums[w], 0);
+            Arrays.fill(counters[w], 0);
+            windowStart[w] = UNKNOWN;
+        }
+        Arrays.fill(captureTimes, UNKNOWN);
+        captured = 0;
+        decoded = 0;
+        dropped = 0;
+        succeeded = 0;
+        Arrays.fill(failures, 0);
+        focusCycles = 0;
+        focusLocks = 0;
+    }
+
+    private void record(Stage stage, long nanos) {
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS.length && nanos > BUCKET_BOUNDS[bucket]) {
+            bucket++;
+        }
+        buckets[current][stage.ordinal()][bucket]++;
+        sums[current][stage.ordinal()] += nanos;
+    }
+
+    private float getRate(int counter) {
+        long now = System.nanoTime();
+        rotate(now);
+        int oldest = windowStart[1 - current] != UNKNOWN ? 1 - current : current;
+        if (windowStart[oldest] == UNKNOWN || now <= windowStart[oldest]) {
+            return 0;
+        }
+        long events = counters[current][counter] + counters[1 - current][counter];
+        return events * 1e9f / (now - windowStart[oldest]);
+    }
+
+    /**
+     * Starts a new window once the current one is {@link #WINDOW_MS} old; the previous window
+     * is forgotten, or both if the gap was longer than a window.
+     */
+    private void rotate(long nowNanos) {
+        if (windowStart[current] == UNKNOWN) {
+            windowStart[current] = nowNanos;
+            return;
+        }
+        long age = nowNanos - windowStart[current];
+        if (age < WINDOW_NANOS) {
+            return;
+        }
+        if (age >= 2 * WINDOW_NANOS) {
+            clearWindow(current);
+        }
+        current = 1 - current;
+        clearWindow(current);
+        windowStart[current] = nowNanos;
+    }
+
+    private void clearWindow(int window) {
+        for (long[] stageBuckets : buckets[window]) {
+            Arrays.fill(stageBuckets, 0);
+        }
+        Arrays.fill(sums[window], 0);
+        Arrays.fill(counters[window], 0);
+        windowStart[window] = UNKNOWN;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("ScanMetrics{");
+        for (Stage stage : Stage.values()) {
+            sb.append(stage).append(String.format(Locale.US, "=p50 %.1f p90 %.1f ms, ",
+                    getPercentileMs(stage, 0.5f), getPercentileMs(stage, 0.9f)));
+        }
+        sb.append(String.format(Locale.US, "capture %.1f fps, decode %.1f fps, success %.0f%%",
+                getCaptureFps(), getEffectiveFps(), getSuccessRate() * 100));
+        sb.append(", captured ").append(captured)
+                .append(", decoded ").append(decoded)
+                .append(", dropped ").append(dropped)
+                .append(", succeeded ").append(succeeded)
+                .append(", not found ").append(failures[Scanner.FailReason.NOT_FOUND])
+                .append(", blurry ").append(failures[Scanner.FailReason.BLURRY])
+                .append(", duplicate ").append(failures[Scanner.FailReason.DUPLICATE])
+                .append(", focus cycles ").append(focusCycles)
+                .append(String.format(Locale.US, " (%.1f per success, %d locked)",
+                        getFocusCyclesPerSuccess(), focusLocks))
+                .append('}');
+        return sb.toString();
+    }
+}
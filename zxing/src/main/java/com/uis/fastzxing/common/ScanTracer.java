@@ -0,0 +1,207 @@
+package com.uis.fastzxing.common;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.Trace;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+/**
+ * Records individual scan events into a bounded ring buffer, so a slow frame, a long focus cycle
+ * or a late hop to the UI thread can be found on a timeline after the fact. The buffer can be
+ * written out as Chrome trace event JSON at any time, which chrome://tracing and the Perfetto UI
+ * open directly.
+ *
+ * <p>Sections {@link #begin begin} and {@link #end end} on the same thread and are mirrored to
+ * {@link Trace} where available, so they also show up in systrace. Spans that start and end on
+ * different threads, like a focus cycle, are {@link #beginAsync async}. Once the buffer is full
+ * the oldest events are overwritten.</p>
+ *
+ * <p>Recording is thread safe and allocates nothing: names must be constants.</p>
+ */
+public final class ScanTracer {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private static final boolean SYSTRACE =
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+    private static final int MAX_THREADS = 32;
+
+    private static final char BEGIN = 'B';
+    private static final char END = 'E';
+    private static final char INSTANT = 'i';
+    private static final char ASYNC_BEGIN = 'b';
+    private static final char ASYNC_END = 'e';
+
+    private final String[] names;
+    private final char[] phases;
+    private final long[] times;
+    private final long[] threadIds;
+    private final long[] args;
+    private int next;
+    private int size;
+    private final long[] knownThreadIds = new long[MAX_THREADS];
+    private final String[] knownThreadNames = new String[MAX_THREADS];
+    private int knownThreads;
+
+    public ScanTracer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity events kept before the oldest are overwritten
+     */
+    public ScanTracer(int capacity) {
+        capacity = Math.max(16, capacity);
+        names = new String[capacity];
+        phases = new char[capacity];
+        times = new long[capacity];
+        threadIds = new long[capacity];
+        args = new long[capacity];
+    }
+
+    /**
+     * Opens a section on the calling thread.
+     *
+     * @param arg shown with the event, e.g. the identity of a preview buffer
+     */
+    public void begin(String name, long arg) {
+        record(name, BEGIN, arg);
+        if (SYSTRACE) {
+            Trace.beginSection(name);
+        }
+    }
+
+    /**
+     * Closes the innermost section opened on the calling thread.
+     */
+    public void end(String name) {
+        if (SYSTRACE) {
+            Trace.endSection();
+        }
+        record(name, END, 0);
+    }
+
+    public void instant(String name, long arg) {
+        record(name, INSTANT, arg);
+    }
+
+    /**
+     * Opens a span that may end on another thread; spans of the same name are told apart by id.
+     */
+    public void beginAsync(String name, long id) {
+        record(name, ASYNC_BEGIN, id);
+    }
+
+    public void endAsync(String name, long id) {
+        record(name, ASYNC_END, id);
+    }
+
+    public synchronized void clear() {
+        next = 0;
+        size = 0;
+    }
+
+    private synchronized void record(String name, char phase, long arg) {
+        Thread thread = Thread.currentThread();
+        long threadId = thread.getId();
+        if (knownThreads < MAX_THREADS && indexOfThread(threadId) < 0) {
+            knownThreadIds[knownThreads] = threadId;
+            knownThreadNames[knownThreads] = thread.getName();
+            knownThreads++;
+        }
+        names[next] = name;
+        phases[next] = phase;
+        times[next] = System.nanoTime();
+        threadIds[next] = threadId;
+        args[next] = arg;
+        next = (next + 1) % names.length;
+        if (size < names.length) {
+            size++;
+        }
+    }
+
+    private int indexOfThread(long threadId) {
+        for (int i = 0; i < knownThreads; i++) {
+            if (knownThreadIds[i] == threadId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Writes the buffered events, oldest first, as a Chrome trace event JSON object. Timestamps
+     * are {@link System#nanoTime()} in microseconds.
+     */
+    public synchronized void writeChromeTrace(Writer out) throws IOException {
+        int pid = Process.myPid();
+        out.write("{\"traceEvents\":[");
+        boolean first = true;
+        for (int i = 0; i < knownThreads; i++) {
+            if (!first) {
+                out.write(',');
+            }
+            first = false;
+            out.write("{\"ph\":\"M\",\"name\":\"thread_name\",\"pid\":" + pid
+                    + ",\"tid\":" + knownThreadIds[i] + ",\"args\":{\"name\":");
+            writeString(out, knownThreadNames[i]);
+            out.write("}}");
+        }
+        int start = (next - size + names.length) % names.length;
+        for (int i = 0; i < size; i++) {
+            int event = (start + i) % names.length;
+            if (!first) {
+                out.write(',');
+            }
+            first = false;
+            char phase = phases[event];
+            out.write("{\"ph\":\"" + phase + "\",\"cat\":\"scan\",\"name\":");
+            writeString(out, names[event]);
+            out.write(",\"pid\":" + pid + ",\"tid\":" + threadIds[event]
+                    + ",\"ts\":" + times[event] / 1000L);
+            if (phase == ASYNC_BEGIN || phase == ASYNC_END) {
+                out.write(",\"id\":" + args[event]);
+            } else if (phase == INSTANT) {
+                out.write(",\"s\":\"t\",\"args\":{\"arg\":" + args[event] + "}");
+            } else if (phase == BEGIN) {
+                out.write(",\"args\":{\"arg\":" + args[event] + "}");
+            }
+            out.write('}');
+        }
+        out.write("]}");
+        out.flush();
+    }
+
+    /**
+     * @return the buffered events as a Chrome trace event JSON object
+     * @see #writeChromeTrace(Writer)
+     */
+    public String toChromeTrace() {
+        StringWriter out = new StringWriter();
+        try {
+            writeChromeTrace(out);
+        } catch (IOException e) {
+            // StringWriter does not throw
+        }
+        return out.toString();
+    }
+
+    private static void writeString(Writer out, String value) throws IOException {
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.write('\\');
+                out.write(c);
+            } else if (c < ' ') {
+                out.write(String.format("\\u%04x", (int) c));
+            } else {
+                out.write(c);
+            }
+        }
+        out.write('"');
+    }
+}
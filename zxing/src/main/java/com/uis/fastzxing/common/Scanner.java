@@ -18,6 +18,25 @@ public final class Scanner {
     public static final int LAUNCH_PRODUCT_QUERY = 4;
     public static final int DECODE = 5;
     public static final int QUIT = 6;
+    public static final int DECODE_MULTIPLE_SUCCEEDED = 7;
+
+    /**
+     * Why a frame produced no result, carried in arg2 of {@link #DECODE_FAILED}.
+     */
+    public static class FailReason {
+        /**
+         * The readers ran and found nothing.
+         */
+        public static final int NOT_FOUND = 0;
+        /**
+         * The frame was too blurry and was not decoded.
+         */
+        public static final int BLURRY = 1;
+        /**
+         * The frame showed the same scene as frames that already failed and was not decoded.
+         */
+        public static final int DUPLICATE = 2;
+    }
 
     public static class color {
         public static final int VIEWFINDER_MASK = 0x60000000;
@@ -0,0 +1,182 @@
+package com.uis.fastzxing.decode;
+
+import com.google.zxing.Binarizer;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.ReaderException;
+import com.google.zxing.common.GlobalHistogramBinarizer;
+import com.google.zxing.common.HybridBinarizer;
+
+import java.util.Locale;
+
+/**
+ * Picks the binarizer for each decode attempt. The cheap {@link GlobalHistogramBinarizer} goes
+ * first until {@link HybridBinarizer} has produced more recent hits, which is what unevenly lit
+ * labels need; when the first choice fails the other one is tried as a fallback, on every frame
+ * or every other frame depending on the {@link Mode}. Attempts, hits and time spent are counted
+ * per binarizer so the strategy can be tuned. Instances are thread safe and meant to be shared by
+ * all decode workers of a scan session.
+ */
+public final class BinarizerStrategy {
+
+    /**
+     * Score kept by the binarizer that did not produce a hit, so recent hits weigh most.
+     */
+    private static final float SCORE_DECAY = 0.8f;
+
+    public enum Kind {
+        GLOBAL_HISTOGRAM {
+            @Override
+            Binarizer create(LuminanceSource source) {
+                return new GlobalHistogramBinarizer(source);
+            }
+        },
+        HYBRID {
+            @Override
+            Binarizer create(LuminanceSource source) {
+                return new HybridBinarizer(source);
+            }
+        };
+
+        abstract Binarizer create(LuminanceSource source);
+    }
+
+    public enum Mode {
+        /**
+         * Try the other binarizer whenever the preferred one fails. Right for single images.
+         */
+        FALLBACK,
+        /**
+         * Try the other binarizer on every other failed frame, so a live preview pays for the
+         * second pass at most half the time.
+         */
+        ALTERNATE
+    }
+
+    /**
+     * Decodes one binarized bitmap; reader state is the caller's business.
+     *
+     * @param <T> what a decode produces, a {@link com.google.zxing.Result} or several
+     */
+    public interface BitmapReader<T> {
+        T decode(BinaryBitmap bitmap) throws ReaderException;
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+
+    private final Mode mode;
+    private final float[] scores = new float[KINDS.length];
+    private final long[] attempts = new long[KINDS.length];
+    private final long[] hits = new long[KINDS.length];
+    private final long[] nanos = new long[KINDS.length];
+    private long frames;
+
+    public BinarizerStrategy() {
+        this(Mode.ALTERNATE);
+    }
+
+    public BinarizerStrategy(Mode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Decodes the source with the preferred binarizer, falling back to the other one as the
+     * {@link Mode} allows.
+     *
+     * @return the result, or null if nothing was found
+     */
+    public <T> T decode(LuminanceSource source, BitmapReader<T> reader) {
+        Kind first;
+        boolean fallback;
+        synchronized (this) {
+            first = scores[Kind.HYBRID.ordinal()] > scores[Kind.GLOBAL_HISTOGRAM.ordinal()]
+                    ? Kind.HYBRID : Kind.GLOBAL_HISTOGRAM;
+            fallback = mode == Mode.FALLBACK || (frames++ & 1) == 0;
+        }
+        T result = attempt(first, source, reader);
+        if (result == null && fallback) {
+            result = attempt(first == Kind.HYBRID ? Kind.GLOBAL_HISTOGRAM : Kind.HYBRID,
+                    source, reader);
+        }
+        return result;
+    }
+
+    private <T> T attempt(Kind kind, LuminanceSource source, BitmapReader<T> reader) {
+        long start = System.nanoTime();
+        T result = null;
+        try {
+            result = reader.decode(new BinaryBitmap(kind.create(source)));
+        } catch (ReaderException re) {
+            // continue
+        }
+        record(kind, result != null, System.nanoTime() - start);
+        return result;
+    }
+
+    private synchronized void record(Kind kind, boolean hit, long elapsedNanos) {
+        int index = kind.ordinal();
+        attempts[index]++;
+        nanos[index] += elapsedNanos;
+        if (hit) {
+            hits[index]++;
+            for (int i = 0; i < scores.length; i++) {
+                scores[i] = i == index ? scores[i] + 1 : scores[i] * SCORE_DECAY;
+            }
+        }
+    }
+
+    public synchronized long getAttempts(Kind kind) {
+        return attempts[kind.ordinal()];
+    }
+
+    public synchronized long getHits(Kind kind) {
+        return hits[kind.ordinal()];
+    }
+
+    /**
+     * @return share of attempts with this binarizer that produced a result
+     */
+    public synchronized float getSuccessRate(Kind kind) {
+        long n = attempts[kind.ordinal()];
+        return n == 0 ? 0f : (float) hits[kind.ordinal()] / n;
+    }
+
+    /**
+     * @return time spent in all attempts with this binarizer divided by its hits, i.e. what one
+     * result costs; -1 if it never hit
+     */
+    public synchronized long getNanosPerSuccess(Kind kind) {
+        long n = hits[kind.ordinal()];
+        return n == 0 ? -1 : nanos[kind.ordinal()] / n;
+    }
+
+    /**
+     * Forgets learned preferences and statistics.
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < KINDS.length; i++) {
+            scores[i] = 0f;
+            attempts[i] = 0;
+            hits[i] = 0;
+            nanos[i] = 0;
+        }
+        frames = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder result = new StringBuilder("BinarizerStrategy{");
+        for (Kind kind : KINDS) {
+            int i = kind.ordinal();
+            result.append(kind).append(": ")
+                    .append(hits[i]).append('/').append(attempts[i]).append(" hits, ");
+            if (hits[i] == 0) {
+                result.append("- ms/hit; ");
+            } else {
+                result.append(String.format(Locale.US, "%.2f", nanos[i] / 1e6 / hits[i]))
+                        .append(" ms/hit; ");
+            }
+        }
+        return result.append('}').toString();
+    }
+}
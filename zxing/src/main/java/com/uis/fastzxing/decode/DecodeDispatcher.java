@@ -0,0 +1,239 @@
+package com.uis.fastzxing.decode;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+
+import com.google.zxing.Result;
+import com.uis.fastzxing.camera.FrameSource;
+import com.uis.fastzxing.common.ScanMetrics;
+import com.uis.fastzxing.common.Scanner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs on the {@link DecodeThread} looper and spreads preview frames over a pool of
+ * {@link DecodeWorker}s. The first result of a scan is forwarded to the ScannerViewHandler
+ * exactly once; results still in flight on other workers are dropped, and no more frames are
+ * decoded until {@link Scanner#RESTART_PREVIEW}. {@link Scanner#QUIT} cancels the workers and
+ * returns only once each has finished its current frame and exited. In continuous mode every batch of results is
+ * forwarded without the codes already reported recently, and scanning goes on.
+ *
+ * <p>In pipelined mode the camera streams every frame into a {@link FrameMailbox} and workers
+ * pull the freshest frame from it as soon as they finish, without a round trip through this
+ * handler. Otherwise frames are requested one at a time: a frame goes to whichever worker is
+ * idle, and while every worker is busy the newest frame waits in a single slot and replaces any
+ * older one.</p>
+ */
+final class DecodeDispatcher extends Handler {
+
+    private final FrameSource frameSource;
+    private final Handler scannerViewHandler;
+    private final DecodeWorker[] workerThreads;
+    private final DecodeHandler[] workers;
+    private final boolean[] busy;
+    private final FrameMailbox mailbox;
+    private final ResultCache resultCache;
+    private final ScanMetrics scanMetrics;
+    private int generation;
+    private boolean scanning;
+    private boolean streaming;
+    private boolean awaitingFrame;
+    private byte[] pendingData;
+    private int pendingWidth;
+    private int pendingHeight;
+
+    DecodeDispatcher(DecodeThread decodeThread, Handler scannerViewHandler) {
+        this.frameSource = decodeThread.getFrameSource();
+        this.scannerViewHandler = scannerViewHandler;
+        resultCache = decodeThread.getResultCache();
+        scanMetrics = decodeThread.getScanMetrics();
+        int workerCount = decodeThread.getWorkerCount();
+        mailbox = decodeThread.isPipelined()
+                ? new FrameMailbox(frameSource, workerCount, scanMetrics) : null;
+        workerThreads = new DecodeWorker[workerCount];
+        workers = new DecodeHandler[workerCount];
+        busy = new boolean[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            DecodeWorker worker = new DecodeWorker(decodeThread, this, i, mailbox);
+            worker.start();
+            workerThreads[i] = worker;
+            workers[i] = worker.getHandler();
+            if (mailbox != null) {
+                //所有线程先挂起等待第一帧
+                mailbox.takeOrPark(workers[i]);
+            }
+        }
+    }
+
+    @Override
+    public void handleMessage(Message message) {
+        switch (message.what) {
+            case Scanner.RESTART_PREVIEW:
+                scanning = true;
+                if (mailbox == null) {
+                    requestFrame();
+                } else {
+                    mailbox.open();
+                    if (!streaming) {
+                        streaming = true;
+                        frameSource.startPreviewStream(mailbox);
+                    }
+                }
+                break;
+            case Scanner.DECODE:
+                onFrame((byte[]) message.obj, message.arg1, message.arg2);
+                break;
+            case Scanner.DECODE_SUCCEEDED:
+                onDecoded(message.arg1, message);
+                break;
+            case Scanner.DECODE_MULTIPLE_SUCCEEDED:
+                if (scanning && isCurrent(message.arg2)) {
+                    forwardNewResults((Result[]) message.obj);
+                }
+                onDecoded(message.arg1, null);
+                break;
+            case Scanner.DECODE_FAILED:
+                onDecoded(message.arg1, null);
+                break;
+            case Scanner.QUIT:
+                scanning = false;
+                dropPendingFrame();
+                if (mailbox != null) {
+                    mailbox.close();
+                    frameSource.stopPreviewStream();
+                }
+                for (DecodeHandler worker : workers) {
+                    worker.cancel();
+                    Message.obtain(worker, Scanner.QUIT).sendToTarget();
+                }
+                joinWorkers();
+                Looper.myLooper().quit();
+                break;
+        }
+    }
+
+    private void onFrame(byte[] data, int width, int height) {
+        awaitingFrame = false;
+        if (!scanning) {
+            frameSource.releasePreviewFrame(data);
+            return;
+        }
+        int worker = findIdleWorker();
+        if (worker >= 0) {
+            dispatch(worker, data, width, height);
+        } else {
+            //最新帧替换等待中的旧帧
+            if (pendingData != null && scanMetrics != null) {
+                scanMetrics.onFrameDropped();
+            }
+            dropPendingFrame();
+            pendingData = data;
+            pendingWidth = width;
+            pendingHeight = height;
+        }
+        requestFrame();
+    }
+
+    private void onDecoded(int worker, Message success) {
+        busy[worker] = false;
+        if (success != null && scanning && isCurrent(success.arg2)) {
+            //只回调第一个结果，其余线程的结果作废
+            scanning = false;
+            generation++;
+            dropPendingFrame();
+            if (mailbox != null) {
+                mailbox.close();
+            }
+            Message.obtain(scannerViewHandler, Scanner.DECODE_SUCCEEDED, success.obj)
+                    .sendToTarget();
+            return;
+        }
+        if (success != null) {
+            //作废结果的预览帧还给相机
+            ((DecodedFrame) success.obj).release();
+        }
+        if (scanning && pendingData != null) {
+            byte[] data = pendingData;
+            pendingData = null;
+            dispatch(worker, data, pendingWidth, pendingHeight);
+        }
+        requestFrame();
+    }
+
+    private void forwardNewResults(Result[] results) {
+        long now = SystemClock.elapsedRealtime();
+        List<Result> fresh = null;
+        for (Result result : results) {
+            if (resultCache.offer(result, now)) {
+                if (fresh == null) {
+                    fresh = new ArrayList<>(results.length);
+                }
+                fresh.add(result);
+            }
+        }
+        if (fresh != null) {
+            Message.obtain(scannerViewHandler, Scanner.DECODE_MULTIPLE_SUCCEEDED,
+                    fresh.toArray(new Result[fresh.size()])).sendToTarget();
+        }
+    }
+
+    private boolean isCurrent(int frameGeneration) {
+        return mailbox == null ? frameGeneration == generation : mailbox.isCurrent(frameGeneration);
+    }
+
+    private void dispatch(int worker, byte[] data, int width, int height) {
+        busy[worker] = true;
+        workers[worker].assignFrame(generation, width, height);
+        workers[worker].obtainMessage(Scanner.DECODE, width, height, data).sendToTarget();
+    }
+
+    /**
+     * Keeps one frame request outstanding while scanning, so an idle worker or the pending slot
+     * is always refilled with the newest frame.
+     */
+    private void requestFrame() {
+        if (mailbox == null && scanning && !awaitingFrame) {
+            awaitingFrame = true;
+            frameSource.requestPreviewFrame(this, Scanner.DECODE);
+        }
+    }
+
+    /**
+     * Waits for every worker to finish the frame it is decoding and exit, so no worker still
+     * reads a preview frame once the camera that lent it is closed.
+     */
+    private void joinWorkers() {
+        boolean interrupted = false;
+        for (DecodeWorker worker : workerThreads) {
+            while (worker.isAlive()) {
+                try {
+                    worker.join();
+                } catch (InterruptedException ie) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private int findIdleWorker() {
+        for (int i = 0; i < busy.length; i++) {
+            if (!busy[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void dropPendingFrame() {
+        if (pendingData != null) {
+            frameSource.releasePreviewFrame(pendingData);
+            pendingData = null;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import android.text.TextUtils;
 import com.google.zxing.BarcodeFormat;
 import com.uis.fastzxing.common.Scanner;
 
+import java.util.Collection;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
@@ -18,9 +19,15 @@ public final class DecodeFormatManager {
 
     static final Set<BarcodeFormat> PRODUCT_FORMATS;
     static final Set<BarcodeFormat> INDUSTRIAL_FORMATS;
-    private static final Set<BarcodeFormat> ONE_D_FORMATS;
+    static final Set<BarcodeFormat> ONE_D_FORMATS;
     static final Set<BarcodeFormat> QR_CODE_FORMATS = EnumSet.of(BarcodeFormat.QR_CODE);
     static final Set<BarcodeFormat> DATA_MATRIX_FORMATS = EnumSet.of(BarcodeFormat.DATA_MATRIX);
+    //二维码检测与方向无关，竖屏无需旋转画面
+    private static final Set<BarcodeFormat> ROTATION_FREE_FORMATS = EnumSet.of(
+            BarcodeFormat.QR_CODE,
+            BarcodeFormat.DATA_MATRIX,
+            BarcodeFormat.AZTEC,
+            BarcodeFormat.MAXICODE);
 
     static {
         PRODUCT_FORMATS = EnumSet.of(
@@ -68,6 +75,16 @@ public final class DecodeFormatManager {
         return null;
     }
 
+    /**
+     * 是否全部为与方向无关的二维码类型
+     *
+     * @param formats
+     * @return true if every format can be decoded from a frame in any orientation
+     */
+    public static boolean isRotationFree(Collection<BarcodeFormat> formats) {
+        return formats != null && !formats.isEmpty() && ROTATION_FREE_FORMATS.containsAll(formats);
+    }
+
     public static Set<BarcodeFormat> parseDecodeFormats(String decodeMode) {
         if (!TextUtils.isEmpty(decodeMode)) {
             return FORMATS_FOR_MODE.get(decodeMode);
@@ -16,59 +16,125 @@
 
 package com.uis.fastzxing.decode;
 
-import android.content.res.Configuration;
-import android.graphics.Bitmap;
-import android.os.Bundle;
+import android.graphics.Rect;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 
-import com.google.zxing.BinaryBitmap;
-import com.google.zxing.DecodeHintType;
-import com.google.zxing.MultiFormatReader;
-import com.google.zxing.PlanarYUVLuminanceSource;
-import com.google.zxing.ReaderException;
+import com.google.zxing.LuminanceSource;
 import com.google.zxing.Result;
-import com.google.zxing.common.GlobalHistogramBinarizer;
-import com.uis.fastzxing.camera.CameraManager;
+import com.uis.fastzxing.camera.FrameSource;
+import com.uis.fastzxing.common.ScanMetrics;
+import com.uis.fastzxing.common.ScanTracer;
 import com.uis.fastzxing.common.Scanner;
 
-import java.io.ByteArrayOutputStream;
-import java.util.Map;
-
 final class DecodeHandler extends Handler {
 
-    private final CameraManager cameraManager;
-    private final Handler scannerViewHandler;
-    private final MultiFormatReader multiFormatReader;
-    private boolean running = true;
-    private boolean bundleThumbnail = false;
+    /**
+     * Frames between two brightness reports to the frame source.
+     */
+    private static final int LIGHT_METER_INTERVAL = 4;
 
-    DecodeHandler(CameraManager cameraManager, Handler scannerViewHandler, Map<DecodeHintType,
-            Object> hints, boolean bundleThumbnail) {
-        this.cameraManager = cameraManager;
-        this.scannerViewHandler = scannerViewHandler;
-        this.bundleThumbnail = bundleThumbnail;
-        multiFormatReader = new MultiFormatReader();
-        multiFormatReader.setHints(hints);
+    private final FrameSource frameSource;
+    private final Handler dispatcher;
+    private final int workerId;
+    private final ScanEngine scanEngine;
+    private final FrameDecoder frameDecoder;
+    private final boolean continuous;
+    private final boolean rotationFree;
+    private final ScanMetrics scanMetrics;
+    private final ScanTracer scanTracer;
+    private final FrameRecorder frameRecorder;
+    private final FrameMailbox mailbox;
+    private volatile boolean running = true;
+    private int frameGeneration;
+    private int frameWidth;
+    private int frameHeight;
+    private final LightMeter lightMeter = new LightMeter();
+    private int framesSinceLightMeter;
+
+    /**
+     * @param mailbox frames come from this mailbox in pipelined mode, or null if each frame is
+     *                dispatched by message and every failure is reported back
+     */
+    DecodeHandler(DecodeThread decodeThread, Handler dispatcher, int workerId,
+                  FrameMailbox mailbox) {
+        this.frameSource = decodeThread.getFrameSource();
+        this.dispatcher = dispatcher;
+        this.workerId = workerId;
+        this.mailbox = mailbox;
+        this.scanMetrics = decodeThread.getScanMetrics();
+        this.scanTracer = decodeThread.getScanTracer();
+        this.frameRecorder = decodeThread.getFrameRecorder();
+        this.continuous = decodeThread.isContinuous();
+        //每个解码线程独占一套读取器，退出时归还
+        scanEngine = decodeThread.getWorkerEngine();
+        frameDecoder = scanEngine.acquire();
+        rotationFree = frameDecoder.isRotationFree();
     }
 
     @Override
     public void handleMessage(Message message) {
-        if (message == null || !running) {
+        if (message == null) {
             return;
         }
         switch (message.what) {
             case Scanner.DECODE:
-                decode((byte[]) message.obj, message.arg1, message.arg2);
+                if (!running) {
+                    //已取消，不再解码，预览帧直接还给相机
+                    frameSource.releasePreviewFrame((byte[]) message.obj);
+                } else if (mailbox == null) {
+                    decode((byte[]) message.obj, message.arg1, message.arg2);
+                } else {
+                    //流水线模式：解完一帧立即从信箱取最新帧，信箱为空才挂起
+                    byte[] data = (byte[]) message.obj;
+                    while (data != null) {
+                        decode(data, frameWidth, frameHeight);
+                        data = running ? mailbox.takeOrPark(this) : null;
+                    }
+                }
                 break;
             case Scanner.QUIT:
                 running = false;
+                scanEngine.release(frameDecoder);
                 Looper.myLooper().quit();
                 break;
         }
     }
 
+    /**
+     * Stops this worker from starting on another frame; called from the dispatcher before
+     * {@link Scanner#QUIT}. A frame already being decoded is finished, and frames queued behind
+     * it are released without being decoded.
+     */
+    void cancel() {
+        running = false;
+    }
+
+    /**
+     * Called by whoever hands this worker its next frame, before the frame arrives.
+     *
+     * @param generation scan generation the frame belongs to, echoed back with a result
+     */
+    void assignFrame(int generation, int width, int height) {
+        frameGeneration = generation;
+        frameWidth = width;
+        frameHeight = height;
+    }
+
+    private void decode(byte[] data, int width, int height) {
+        if (scanTracer == null) {
+            decodeFrame(data, width, height);
+            return;
+        }
+        scanTracer.begin("decode", System.identityHashCode(data));
+        try {
+            decodeFrame(data, width, height);
+        } finally {
+            scanTracer.end("decode");
+        }
+    }
+
     /**
      * 捕捉画面并解码<br/>
      * Decode the data within the viewfinder rectangle, and time how long it
@@ -79,64 +145,109 @@ final class DecodeHandler extends Handler {
      * @param width  The width of the preview frame.
      * @param height The height of the preview frame.
      */
-    private void decode(byte[] data, int width, int height) {
-        //竖屏识别一维
-        if (cameraManager.getContext().getResources().getConfiguration().orientation ==
-                Configuration.ORIENTATION_PORTRAIT) {
-            byte[] rotatedData = new byte[data.length];
-            for (int y = 0; y < height; y++) {
-                for (int x = 0; x < width; x++)
-                    rotatedData[x * height + height - y - 1] = data[x + y * width];
+    private void decodeFrame(byte[] data, int width, int height) {
+        long startNanos = System.nanoTime();
+        long captureNanos = scanMetrics != null
+                ? scanMetrics.takeCaptureTime(data) : ScanMetrics.UNKNOWN;
+        //竖屏时按需读取旋转后的扫描框区域，不再整帧旋转
+        boolean portrait = frameSource.isPortrait();
+        boolean transposed = rotationFree && portrait;
+        if (frameRecorder != null) {
+            recordFrame(data, width, height, portrait, captureNanos);
+        }
+        LuminanceSource crop;
+        if (scanTracer != null) {
+            scanTracer.begin("buildLuminanceSource", 0);
+        }
+        try {
+            crop = frameSource.buildLuminanceSource(data, width, height, rotationFree);
+        } finally {
+            //每段单独闭合，抛出异常时外层 decode 段仍能正确出栈
+            if (scanTracer != null) {
+                scanTracer.end("buildLuminanceSource");
             }
-            int tmp = width;
-            width = height;
-            height = tmp;
-            data = rotatedData;
         }
-        Result rawResult = null;
-        PlanarYUVLuminanceSource source = cameraManager.buildLuminanceSource(data, width, height);
-        if (source != null) {
-            BinaryBitmap bitmap = new BinaryBitmap(new GlobalHistogramBinarizer(source));
-            try {
-                rawResult = multiFormatReader.decodeWithState(bitmap);
-            } catch (ReaderException re) {
-                // continue
-            } finally {
-                multiFormatReader.reset();
+        long builtNanos = System.nanoTime();
+        boolean found;
+        if (scanTracer != null) {
+            scanTracer.begin("read", 0);
+        }
+        try {
+            found = frameDecoder.decode(crop, transposed, continuous);
+        } finally {
+            if (scanTracer != null) {
+                scanTracer.end("read");
             }
         }
+        long decodedNanos = System.nanoTime();
+        if (scanMetrics != null) {
+            scanMetrics.onFrameDecoded(captureNanos, startNanos, builtNanos, decodedNanos, found,
+                    frameDecoder.getFailReason());
+        }
+        //清晰度及定位点反馈给相机，决定何时对焦及放大
+        frameSource.onFrameDecoded(found, frameDecoder.getFocusMeasure(),
+                frameDecoder.getFinderPoints(), frameDecoder.getModuleSize());
+        //扫描框亮度反馈给相机，决定是否自动补光
+        if (crop != null && ++framesSinceLightMeter >= LIGHT_METER_INTERVAL) {
+            framesSinceLightMeter = 0;
+            if (lightMeter.measure(crop)) {
+                frameSource.onFrameLuminance(lightMeter.getMean(), lightMeter.getDarkFraction(),
+                        lightMeter.getSaturatedFraction());
+            }
+        }
+        Result rawResult = frameDecoder.getResult();
+        Result[] rawResults = frameDecoder.getResults();
 
-        Handler handler = scannerViewHandler;
-        if (rawResult != null) {
+        Handler handler = dispatcher;
+        if (rawResults != null) {
             if (handler != null) {
-                //会向 ScannerViewHandler 发消息
-                Message message = Message.obtain(handler, Scanner.DECODE_SUCCEEDED, rawResult);
-                Bundle bundle = new Bundle();
-                if (bundleThumbnail)
-                    bundleThumbnail(source, bundle);
-                message.setData(bundle);
+                //由 DecodeDispatcher 去掉近期已上报的码
+                Message message = Message.obtain(handler, Scanner.DECODE_MULTIPLE_SUCCEEDED,
+                        rawResults);
+                message.arg1 = workerId;
+                message.arg2 = frameGeneration;
                 message.sendToTarget();
             }
-        } else {
+        } else if (rawResult != null) {
             if (handler != null) {
+                //经 DecodeDispatcher 转发给 ScannerViewHandler，预览帧随结果一起交出，
+                //需要缩略图时按屏幕方向从整个扫描框绘制
+                if (transposed) {
+                    crop = frameSource.buildLuminanceSource(data, width, height, false);
+                }
+                Message message = Message.obtain(handler, Scanner.DECODE_SUCCEEDED,
+                        new DecodedFrame(rawResult, crop, data, frameSource, captureNanos,
+                                decodedNanos));
+                message.arg1 = workerId;
+                message.arg2 = frameGeneration;
+                message.sendToTarget();
+                return;
+            }
+        } else {
+            //流水线模式下失败无需通知，直接取下一帧
+            if (handler != null && mailbox == null) {
                 Message message = Message.obtain(handler, Scanner.DECODE_FAILED);
+                message.arg1 = workerId;
+                message.arg2 = frameDecoder.getFailReason();
                 message.sendToTarget();
             }
         }
+        //归还预览缓冲区
+        frameSource.releasePreviewFrame(data);
     }
 
-    private static void bundleThumbnail(PlanarYUVLuminanceSource source,
-                                        Bundle bundle) {
-        int[] pixels = source.renderThumbnail();
-        int width = source.getThumbnailWidth();
-        int height = source.getThumbnailHeight();
-        Bitmap bitmap = Bitmap.createBitmap(pixels, 0, width, width, height,
-                Bitmap.Config.ARGB_8888);
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        bitmap.compress(Bitmap.CompressFormat.JPEG, 50, out);
-        bundle.putByteArray(DecodeThread.BARCODE_BITMAP, out.toByteArray());
-        bundle.putFloat(DecodeThread.BARCODE_SCALED_FACTOR, (float) width
-                / source.getWidth());
+    /**
+     * Copies the frame and its framing rect into the recorder, for offline replay.
+     */
+    private void recordFrame(byte[] data, int width, int height, boolean portrait,
+                             long captureNanos) {
+        Rect rect = frameSource.getFramingRectInPreview();
+        //Camera2 的帧只是图像的标识，数据不在数组里
+        if (rect != null && data.length >= width * height) {
+            frameRecorder.record(data, width, height, portrait ? 90 : 0, rect.left, rect.top,
+                    rect.right, rect.bottom,
+                    captureNanos != ScanMetrics.UNKNOWN ? captureNanos : System.nanoTime());
+        }
     }
 
 }
@@ -23,7 +23,9 @@ import android.util.Log;
 import com.google.zxing.BarcodeFormat;
 import com.google.zxing.DecodeHintType;
 import com.google.zxing.ResultPointCallback;
-import com.uis.fastzxing.camera.CameraManager;
+import com.uis.fastzxing.camera.FrameSource;
+import com.uis.fastzxing.common.ScanMetrics;
+import com.uis.fastzxing.common.ScanTracer;
 
 import java.util.Collection;
 import java.util.EnumMap;
@@ -32,32 +34,52 @@ import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 
 /**
- * This thread does all the heavy lifting of decoding the images.
+ * This thread does all the heavy lifting of decoding the images. Its handler takes preview
+ * frames and spreads them over a pool of decode workers, each with its own reader.
  *
  * @author dswitkin@google.com (Daniel Switkin)
  */
 public final class DecodeThread extends Thread {
 
-    public static final String BARCODE_BITMAP = "barcode_bitmap";
-    public static final String BARCODE_SCALED_FACTOR = "barcode_scaled_factor";
+    /**
+     * Half the cores, at most 4: the camera, UI and render threads need the rest.
+     */
+    public static final int DEFAULT_WORKER_COUNT =
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
 
-    private final CameraManager cameraManager;
+    private final FrameSource frameSource;
     private final Handler scannerViewHandler;
-    private final Map<DecodeHintType, Object> hints;
-    private DecodeHandler handler;
+    private final ScanEngine scanEngine;
+    private ScanEngine sharedEngine;
+    private DecodeDispatcher handler;
     private final CountDownLatch handlerInitLatch;
-    private boolean bundleThumbnail = false;
+    private final int workerCount;
+    private boolean pipelined = true;
+    private boolean continuous = false;
+    private ResultCache resultCache;
+    private ScanMetrics scanMetrics;
+    private ScanTracer scanTracer;
+    private FrameRecorder frameRecorder;
 
-    public DecodeThread(CameraManager cameraManager, Handler scannerViewHandler,
+    public DecodeThread(FrameSource frameSource, Handler scannerViewHandler,
                         Collection<BarcodeFormat> decodeFormats,
-                        ResultPointCallback resultPointCallback,
-                        boolean bundleThumbnail) {
-        this.cameraManager = cameraManager;
+                        ResultPointCallback resultPointCallback) {
+        this(frameSource, scannerViewHandler, decodeFormats, resultPointCallback,
+                DEFAULT_WORKER_COUNT);
+    }
+
+    /**
+     * @param workerCount number of frames decoded in parallel
+     */
+    public DecodeThread(FrameSource frameSource, Handler scannerViewHandler,
+                        Collection<BarcodeFormat> decodeFormats,
+                        ResultPointCallback resultPointCallback, int workerCount) {
+        this.frameSource = frameSource;
         this.scannerViewHandler = scannerViewHandler;
-        this.bundleThumbnail = bundleThumbnail;
+        this.workerCount = Math.max(1, workerCount);
         handlerInitLatch = new CountDownLatch(1);
 
-        hints = new EnumMap<>(DecodeHintType.class);
+        Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
 
         // The prefs can't change while the thread is running, so pick them up
         // once here.
@@ -90,6 +112,169 @@ public final class DecodeThread extends Thread {
         hints.put(DecodeHintType.NEED_RESULT_POINT_CALLBACK,
                 resultPointCallback);
         Log.i("DecodeThread", "Hints: " + hints);
+        scanEngine = new ScanEngine(hints);
+        //相机预览是按顺序到达的同一路画面，开启逐帧过滤及解码区域收窄
+        scanEngine.setSharpnessFilter(new SharpnessFilter());
+        scanEngine.setDuplicateFilter(new DuplicateFilter());
+        scanEngine.setRoiTracker(new RoiTracker());
+    }
+
+    /**
+     * Chooses between streaming every preview frame into a mailbox that workers pull the newest
+     * frame from ({@code true}, the default) and requesting one frame at a time. Must be called
+     * before {@link #start()}.
+     */
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    /**
+     * Shares a binarizer strategy, and what it learned, with this thread's workers. Must be called
+     * before {@link #start()}.
+     */
+    public void setBinarizerStrategy(BinarizerStrategy binarizerStrategy) {
+        scanEngine.setBinarizerStrategy(binarizerStrategy);
+    }
+
+    /**
+     * Shares a format scheduler, and the hit counts it keeps, with this thread's workers. Must be
+     * called before {@link #start()}.
+     */
+    public void setFormatScheduler(FormatScheduler formatScheduler) {
+        scanEngine.setFormatScheduler(formatScheduler);
+    }
+
+    /**
+     * Shares a blur filter, and the threshold it learned, with this thread's workers. Must be
+     * called before {@link #start()}.
+     */
+    public void setSharpnessFilter(SharpnessFilter sharpnessFilter) {
+        scanEngine.setSharpnessFilter(sharpnessFilter);
+    }
+
+    /**
+     * Shares an unchanged-scene filter with this thread's workers. Must be called before
+     * {@link #start()}.
+     */
+    public void setDuplicateFilter(DuplicateFilter duplicateFilter) {
+        scanEngine.setDuplicateFilter(duplicateFilter);
+    }
+
+    /**
+     * Shares a decode region tracker with this thread's workers. Must be called before
+     * {@link #start()}.
+     */
+    public void setRoiTracker(RoiTracker roiTracker) {
+        scanEngine.setRoiTracker(roiTracker);
+    }
+
+    /**
+     * Chooses whether large crops are decoded at half resolution first ({@code true}, the
+     * default), going to full resolution only when needed. Continuous mode always decodes at
+     * full resolution. Must be called before {@link #start()}.
+     */
+    public void setPyramid(boolean pyramid) {
+        scanEngine.setPyramid(pyramid);
+    }
+
+    /**
+     * Switches to continuous scanning: every code in a frame is decoded, results come as
+     * {@link com.uis.fastzxing.common.Scanner#DECODE_MULTIPLE_SUCCEEDED} batches of codes not
+     * reported within the cache's time to live, and scanning goes on after a result. Must be
+     * called before {@link #start()}.
+     *
+     * @param resultCache results reported recently, or null for the default single result mode
+     */
+    public void setContinuous(ResultCache resultCache) {
+        this.continuous = resultCache != null;
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * Records the stage timings and outcome of every frame the workers decode. Must be called
+     * before {@link #start()}.
+     *
+     * @param scanMetrics where frames are recorded, or null to record nothing
+     */
+    public void setScanMetrics(ScanMetrics scanMetrics) {
+        this.scanMetrics = scanMetrics;
+    }
+
+    /**
+     * Traces every frame the workers decode. Must be called before {@link #start()}.
+     *
+     * @param scanTracer where events are recorded, or null to record nothing
+     */
+    public void setScanTracer(ScanTracer scanTracer) {
+        this.scanTracer = scanTracer;
+    }
+
+    /**
+     * Records every frame the workers decode, for offline replay. Must be called before
+     * {@link #start()}.
+     *
+     * @param frameRecorder where frames are recorded, or null to record nothing
+     */
+    public void setFrameRecorder(FrameRecorder frameRecorder) {
+        this.frameRecorder = frameRecorder;
+    }
+
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    /**
+     * @return an engine for decoding other frames with the workers' formats and what their
+     * binarizer strategy and format schedule learned. The workers' blur and unchanged scene
+     * filters and decode region follow the preview stream and are not shared; neither are
+     * result points, which would otherwise be drawn on the viewfinder.
+     */
+    public synchronized ScanEngine getScanEngine() {
+        if (sharedEngine == null) {
+            Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
+            hints.putAll(scanEngine.getHints());
+            hints.remove(DecodeHintType.NEED_RESULT_POINT_CALLBACK);
+            sharedEngine = new ScanEngine(hints);
+            sharedEngine.setBinarizerStrategy(scanEngine.getBinarizerStrategy());
+            sharedEngine.setFormatScheduler(scanEngine.getFormatScheduler());
+            sharedEngine.setPyramid(scanEngine.isPyramid());
+        }
+        return sharedEngine;
+    }
+
+    /**
+     * @return the engine the workers decode the preview stream with
+     */
+    ScanEngine getWorkerEngine() {
+        return scanEngine;
+    }
+
+    FrameSource getFrameSource() {
+        return frameSource;
+    }
+
+    boolean isPipelined() {
+        return pipelined;
+    }
+
+    boolean isContinuous() {
+        return continuous;
+    }
+
+    ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    ScanMetrics getScanMetrics() {
+        return scanMetrics;
+    }
+
+    ScanTracer getScanTracer() {
+        return scanTracer;
+    }
+
+    FrameRecorder getFrameRecorder() {
+        return frameRecorder;
     }
 
     public Handler getHandler() {
@@ -104,7 +289,7 @@ public final class DecodeThread extends Thread {
     @Override
     public void run() {
         Looper.prepare();
-        handler = new DecodeHandler(cameraManager, scannerViewHandler, hints, bundleThumbnail);
+        handler = new DecodeDispatcher(this, scannerViewHandler);
         handlerInitLatch.countDown();
         Looper.loop();
     }
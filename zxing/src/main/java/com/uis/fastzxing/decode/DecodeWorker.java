@@ -0,0 +1,47 @@
+package com.uis.fastzxing.decode;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * One decode worker of the {@link DecodeDispatcher} pool: a looper thread with its own
+ * {@link DecodeHandler} and therefore its own reader.
+ */
+final class DecodeWorker extends Thread {
+
+    private final DecodeThread decodeThread;
+    private final Handler dispatcher;
+    private final int workerId;
+    private final FrameMailbox mailbox;
+    private final CountDownLatch handlerInitLatch;
+    private DecodeHandler handler;
+
+    DecodeWorker(DecodeThread decodeThread, Handler dispatcher, int workerId,
+                 FrameMailbox mailbox) {
+        super("DecodeWorker-" + workerId);
+        this.decodeThread = decodeThread;
+        this.dispatcher = dispatcher;
+        this.workerId = workerId;
+        this.mailbox = mailbox;
+        handlerInitLatch = new CountDownLatch(1);
+    }
+
+    DecodeHandler getHandler() {
+        try {
+            handlerInitLatch.await();
+        } catch (InterruptedException ie) {
+            // continue?
+        }
+        return handler;
+    }
+
+    @Override
+    public void run() {
+        Looper.prepare();
+        handler = new DecodeHandler(decodeThread, dispatcher, workerId, mailbox);
+        handlerInitLatch.countDown();
+        Looper.loop();
+    }
+}
@@ -0,0 +1,71 @@
+package com.uis.fastzxing.decode;
+
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.Result;
+import com.uis.fastzxing.camera.FrameSource;
+import com.uis.fastzxing.common.ScanMetrics;
+
+/**
+ * A result together with the preview frame it was decoded from. The frame stays out of the
+ * camera's buffer queue until {@link #release()}, so a thumbnail can be rendered straight from
+ * it, and only if someone asks for one, instead of copying every successful frame up front.
+ */
+public final class DecodedFrame {
+
+    private final Result result;
+    private final FrameSource frameSource;
+    private final long captureNanos;
+    private final long decodedNanos;
+    private LuminanceSource source;
+    private byte[] data;
+
+    DecodedFrame(Result result, LuminanceSource source, byte[] data,
+                 FrameSource frameSource, long captureNanos, long decodedNanos) {
+        this.result = result;
+        this.source = source;
+        this.data = data;
+        this.frameSource = frameSource;
+        this.captureNanos = captureNanos;
+        this.decodedNanos = decodedNanos;
+    }
+
+    public Result getResult() {
+        return result;
+    }
+
+    /**
+     * @return when the camera delivered the frame, or {@link ScanMetrics#UNKNOWN}
+     */
+    public long getCaptureNanos() {
+        return captureNanos;
+    }
+
+    /**
+     * @return when the readers returned the result
+     */
+    public long getDecodedNanos() {
+        return decodedNanos;
+    }
+
+    /**
+     * @return the framing rect of the frame as seen on screen, or null once released
+     */
+    public synchronized LuminanceSource getSource() {
+        return source;
+    }
+
+    /**
+     * Gives the frame back to the camera; {@link #getSource()} is null from now on.
+     */
+    public void release() {
+        byte[] frame;
+        synchronized (this) {
+            frame = data;
+            data = null;
+            source = null;
+        }
+        if (frame != null) {
+            frameSource.releasePreviewFrame(frame);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.uis.fastzxing.decode;
+
+import java.util.Locale;
+
+/**
+ * Skips frames that look the same as the last frame nothing was found in, e.g. a fixed-mount
+ * camera staring at an empty counter. A scene is only suppressed after it failed a few times, so
+ * the binarizer fallback and rare format probes still get their turn on it; after that only one
+ * frame in {@link #REFRESH_INTERVAL} is decoded until the {@link FrameFingerprint} moves.
+ * Instances are thread safe and meant to be shared by all decode workers of a scan session.
+ */
+public final class DuplicateFilter {
+
+    /**
+     * Largest cell difference up to which two frames show the same scene; sensor noise and small
+     * exposure changes stay below it, while a code entering any one cell goes above it.
+     */
+    private static final int SAME_SCENE_DISTANCE = 12;
+    /**
+     * Failures on one scene before it is suppressed.
+     */
+    private static final int FAILURES_BEFORE_SUPPRESS = 8;
+    private static final int REFRESH_INTERVAL = 32;
+
+    private boolean enabled = true;
+    private final int[] reference = new int[FrameFingerprint.GRID * FrameFingerprint.GRID];
+    private int failures;
+    private int skippedInRow;
+    private long suppressed;
+    private long passed;
+
+    public synchronized void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return whether the frame should be decoded
+     */
+    synchronized boolean accept(FrameFingerprint fingerprint) {
+        if (failures >= FAILURES_BEFORE_SUPPRESS
+                && FrameFingerprint.distance(fingerprint.cells, reference) <= SAME_SCENE_DISTANCE
+                && ++skippedInRow < REFRESH_INTERVAL) {
+            suppressed++;
+            return false;
+        }
+        skippedInRow = 0;
+        passed++;
+        return true;
+    }
+
+    /**
+     * Records that nothing was found in a decoded frame.
+     */
+    synchronized void recordFailure(FrameFingerprint fingerprint) {
+        if (failures > 0
+                && FrameFingerprint.distance(fingerprint.cells, reference) <= SAME_SCENE_DISTANCE) {
+            failures++;
+        } else {
+            //画面变化，以新画面为参照重新计数
+            System.arraycopy(fingerprint.cells, 0, reference, 0, reference.length);
+            failures = 1;
+        }
+    }
+
+    /**
+     * Records a result, so the next scan decodes the scene again from scratch.
+     */
+    synchronized void recordSuccess() {
+        failures = 0;
+    }
+
+    /**
+     * @return frames skipped as unchanged
+     */
+    public synchronized long getSuppressed() {
+        return suppressed;
+    }
+
+    public synchronized long getPassed() {
+        return passed;
+    }
+
+    public synchronized void reset() {
+        failures = 0;
+        skippedInRow = 0;
+        suppressed = 0;
+        passed = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long total = suppressed + passed;
+        return String.format(Locale.US, "DuplicateFilter{%d/%d frames skipped as unchanged (%.1f%%)}",
+                suppressed, total, total == 0 ? 0f : 100f * suppressed / total);
+    }
+}
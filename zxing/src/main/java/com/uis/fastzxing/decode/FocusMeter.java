@@ -0,0 +1,51 @@
+package com.uis.fastzxing.decode;
+
+import com.google.zxing.LuminanceSource;
+
+/**
+ * Measures how sharp a luminance source is as the variance of its Laplacian, taken on a sparse
+ * grid of pixels so a frame costs a few dozen rows of reads. Motion blur and defocus flatten
+ * edges and drive the value down. Not thread safe: one instance per decode worker.
+ */
+final class FocusMeter {
+
+    /**
+     * Grid rows and columns sampled per frame.
+     */
+    private static final int SAMPLES = 48;
+
+    private byte[] above;
+    private byte[] row;
+    private byte[] below;
+
+    /**
+     * @return the Laplacian variance over the sampled grid, 0 for sources too small to measure
+     */
+    float measure(LuminanceSource source) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        if (width < 3 || height < 3) {
+            return 0f;
+        }
+        int rowStep = Math.max(1, (height - 2) / SAMPLES);
+        int columnStep = Math.max(1, (width - 2) / SAMPLES);
+        long sum = 0;
+        long sumOfSquares = 0;
+        int count = 0;
+        for (int y = 1; y < height - 1; y += rowStep) {
+            above = source.getRow(y - 1, above);
+            row = source.getRow(y, row);
+            below = source.getRow(y + 1, below);
+            for (int x = 1; x < width - 1; x += columnStep) {
+                int laplacian = 4 * (row[x] & 0xff)
+                        - (row[x - 1] & 0xff) - (row[x + 1] & 0xff)
+                        - (above[x] & 0xff) - (below[x] & 0xff);
+                sum += laplacian;
+                sumOfSquares += laplacian * laplacian;
+                count++;
+            }
+        }
+        float mean = (float) sum / count;
+        return (float) sumOfSquares / count - mean * mean;
+    }
+}
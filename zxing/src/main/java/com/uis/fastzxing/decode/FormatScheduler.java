@@ -0,0 +1,140 @@
+package com.uis.fastzxing.decode;
+
+import com.google.zxing.BarcodeFormat;
+
+import java.util.Collection;
+
+/**
+ * Decides which barcode formats each frame is decoded for, from how often each format was found
+ * in this session. Formats that make up a fair share of the hits are tried on every frame, most
+ * likely first; the rest are only probed every {@link #setProbeInterval probe interval} frames,
+ * so a rare format is still found eventually without every failed frame paying for a dozen
+ * readers. Until a few hits have been seen every format is tried on every frame.
+ *
+ * <p>Hit counts can be read and restored to carry them over between sessions. Instances are
+ * thread safe and meant to be shared by all decode workers of a scan session.</p>
+ */
+public final class FormatScheduler {
+
+    public static final int DEFAULT_PROBE_INTERVAL = 4;
+    /**
+     * Hits needed before formats start being skipped.
+     */
+    private static final int WARM_UP_HITS = 3;
+    /**
+     * Share of all hits below which a format is only probed.
+     */
+    private static final float RARE_SHARE = 0.05f;
+    /**
+     * Counts are halved once they add up to this, so the schedule follows what is scanned now.
+     */
+    private static final long MAX_TOTAL_HITS = 1000;
+
+    private static final BarcodeFormat[] FORMATS = BarcodeFormat.values();
+
+    private final long[] hits = new long[FORMATS.length];
+    private long totalHits;
+    private long frames;
+    private int probeInterval = DEFAULT_PROBE_INTERVAL;
+
+    /**
+     * @param probeInterval rare formats are tried on one frame out of this many; 1 tries every
+     *                      format on every frame
+     */
+    public synchronized void setProbeInterval(int probeInterval) {
+        this.probeInterval = Math.max(1, probeInterval);
+    }
+
+    /**
+     * Plans the next frame.
+     *
+     * @param allowed formats the scan is configured for
+     * @param order   receives the formats to try on this frame, most likely first; must hold at
+     *                least {@code allowed.size()} entries
+     * @return number of formats written to {@code order}
+     */
+    public synchronized int schedule(Collection<BarcodeFormat> allowed, BarcodeFormat[] order) {
+        boolean probe = frames++ % probeInterval == 0 || totalHits < WARM_UP_HITS;
+        int count = plan(allowed, order, probe);
+        //命中统计来自其他扫码类型时，全部都试
+        return count == 0 && !probe ? plan(allowed, order, true) : count;
+    }
+
+    private int plan(Collection<BarcodeFormat> allowed, BarcodeFormat[] order, boolean probe) {
+        long rareBelow = (long) Math.ceil(totalHits * RARE_SHARE);
+        int count = 0;
+        for (BarcodeFormat format : allowed) {
+            long formatHits = hits[format.ordinal()];
+            if (!probe && (formatHits == 0 || formatHits < rareBelow)) {
+                continue;
+            }
+            //按命中次数降序插入
+            int i = count++;
+            while (i > 0 && hits[order[i - 1].ordinal()] < formatHits) {
+                order[i] = order[i - 1];
+                i--;
+            }
+            order[i] = format;
+        }
+        return count;
+    }
+
+    /**
+     * Records that a frame decoded to this format.
+     */
+    public synchronized void recordHit(BarcodeFormat format) {
+        hits[format.ordinal()]++;
+        if (++totalHits >= MAX_TOTAL_HITS) {
+            totalHits = 0;
+            for (int i = 0; i < hits.length; i++) {
+                hits[i] /= 2;
+                totalHits += hits[i];
+            }
+        }
+    }
+
+    public synchronized long getHits(BarcodeFormat format) {
+        return hits[format.ordinal()];
+    }
+
+    /**
+     * Restores a count read with {@link #getHits}, e.g. from a previous session.
+     */
+    public synchronized void setHits(BarcodeFormat format, long count) {
+        int index = format.ordinal();
+        totalHits += Math.max(0, count) - hits[index];
+        hits[index] = Math.max(0, count);
+    }
+
+    /**
+     * @return whether the format is currently tried on every frame rather than only probed
+     */
+    public synchronized boolean isFrequent(BarcodeFormat format) {
+        long formatHits = hits[format.ordinal()];
+        return totalHits < WARM_UP_HITS
+                || (formatHits > 0 && formatHits >= (long) Math.ceil(totalHits * RARE_SHARE));
+    }
+
+    /**
+     * Forgets all hit counts.
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < hits.length; i++) {
+            hits[i] = 0;
+        }
+        totalHits = 0;
+        frames = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder result = new StringBuilder("FormatScheduler{");
+        for (BarcodeFormat format : FORMATS) {
+            long formatHits = hits[format.ordinal()];
+            if (formatHits > 0) {
+                result.append(format).append(": ").append(formatHits).append("; ");
+            }
+        }
+        return result.append('}').toString();
+    }
+}
@@ -0,0 +1,346 @@
+package com.uis.fastzxing.decode;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPointCallback;
+import com.google.zxing.multi.GenericMultipleBarcodeReader;
+import com.google.zxing.multi.MultipleBarcodeReader;
+import com.google.zxing.multi.qrcode.QRCodeMultiReader;
+import com.uis.fastzxing.common.Scanner;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Everything a decode worker does to one frame once its framing rect is cropped: the unchanged
+ * scene and blur filters, the decode region, the half resolution pass and the scheduled readers.
+ * When every code in a frame is decoded there is no half resolution pass, since a coarse code
+ * found there would hide finer ones that only full resolution resolves.
+ * It has no Android dependencies, so recorded frames replay through exactly the same steps on a
+ * plain JVM. Not thread safe; one instance per worker, like the readers it reuses.
+ */
+final class FrameDecoder {
+
+    /**
+     * Smallest crop side worth a half resolution pass.
+     */
+    private static final int MIN_PYRAMID_SIZE = 320;
+    /**
+     * A failed half resolution pass without finder candidates is followed by a full resolution
+     * pass on every this many frames.
+     */
+    private static final int FULL_RESOLUTION_INTERVAL = 3;
+
+    private final ScheduledFormatReader formatReader;
+    private final BinarizerStrategy binarizerStrategy;
+    private final BinarizerStrategy.BitmapReader<Result> bitmapReader;
+    private final Map<DecodeHintType, Object> readerHints;
+    private BinarizerStrategy.BitmapReader<Result[]> multipleBitmapReader;
+    private final SharpnessFilter sharpnessFilter;
+    private final FocusMeter focusMeter = new FocusMeter();
+    private final DuplicateFilter duplicateFilter;
+    private final FrameFingerprint fingerprint = new FrameFingerprint();
+    private final RoiTracker roiTracker;
+    private final int[] roi = new int[4];
+    private final boolean pyramid;
+    private final HalfScaleSource halfScaleSource = new HalfScaleSource();
+    private int lowResolutionMisses;
+    private final ResultPointMapper resultPointMapper;
+    private final boolean rotationFree;
+    private Result result;
+    private Result[] results;
+    private int failReason;
+    private float focusMeasure;
+    private int finderPoints;
+    private float moduleSizeSum;
+    private int moduleSizeCount;
+    /**
+     * Settings version of the {@link ScanEngine} that created this decoder.
+     */
+    int generation;
+
+    /**
+     * @param hints formats and result point callback, as for a zxing reader
+     */
+    FrameDecoder(Map<DecodeHintType, ?> hints, BinarizerStrategy binarizerStrategy,
+                 FormatScheduler formatScheduler, SharpnessFilter sharpnessFilter,
+                 DuplicateFilter duplicateFilter, RoiTracker roiTracker, boolean pyramid) {
+        this.binarizerStrategy = binarizerStrategy;
+        this.sharpnessFilter = sharpnessFilter;
+        this.duplicateFilter = duplicateFilter;
+        this.roiTracker = roiTracker;
+        this.pyramid = pyramid;
+        //只解二维码时竖屏不旋转画面
+        @SuppressWarnings("unchecked")
+        Collection<BarcodeFormat> formats =
+                (Collection<BarcodeFormat>) hints.get(DecodeHintType.POSSIBLE_FORMATS);
+        rotationFree = DecodeFormatManager.isRotationFree(formats);
+        resultPointMapper = new ResultPointMapper(
+                (ResultPointCallback) hints.get(DecodeHintType.NEED_RESULT_POINT_CALLBACK),
+                roiTracker);
+        readerHints = new EnumMap<>(DecodeHintType.class);
+        readerHints.putAll(hints);
+        readerHints.put(DecodeHintType.NEED_RESULT_POINT_CALLBACK, resultPointMapper);
+        //按命中统计决定每帧尝试哪些格式及顺序
+        formatReader = new ScheduledFormatReader(formatScheduler, readerHints);
+        bitmapReader = new BinarizerStrategy.BitmapReader<Result>() {
+            @Override
+            public Result decode(BinaryBitmap bitmap) throws ReaderException {
+                try {
+                    return formatReader.decode(bitmap);
+                } finally {
+                    formatReader.reset();
+                }
+            }
+        };
+    }
+
+    /**
+     * Readers for every code in a frame, built the first time a frame is decoded that way.
+     */
+    private BinarizerStrategy.BitmapReader<Result[]> getMultipleBitmapReader() {
+        if (multipleBitmapReader != null) {
+            return multipleBitmapReader;
+        }
+        //连续扫码：一帧内找出全部条码
+        final MultipleBarcodeReader multipleReader =
+                new GenericMultipleBarcodeReader(formatReader);
+        final MultipleBarcodeReader qrCodeMultiReader = new QRCodeMultiReader();
+        multipleBitmapReader = new BinarizerStrategy.BitmapReader<Result[]>() {
+            @Override
+            public Result[] decode(BinaryBitmap bitmap) throws ReaderException {
+                List<Result> results = new ArrayList<>();
+                try {
+                    //多个二维码由专用读取器一次找出，其余格式逐块裁剪查找，不再重复解二维码
+                    if (formatReader.isScheduled(BarcodeFormat.QR_CODE)) {
+                        addResults(results, qrCodeMultiReader, bitmap, readerHints);
+                        for (int i = 0; i < results.size(); i++) {
+                            formatReader.recordHit(BarcodeFormat.QR_CODE);
+                        }
+                        formatReader.skip(BarcodeFormat.QR_CODE);
+                    }
+                    addResults(results, multipleReader, bitmap, readerHints);
+                } finally {
+                    formatReader.skip(null);
+                    formatReader.reset();
+                }
+                if (results.isEmpty()) {
+                    throw NotFoundException.getNotFoundInstance();
+                }
+                return results.toArray(new Result[results.size()]);
+            }
+        };
+        return multipleBitmapReader;
+    }
+
+    /**
+     * Adds the results the reader finds that are not in the list yet.
+     */
+    private static void addResults(List<Result> results, MultipleBarcodeReader reader,
+                                   BinaryBitmap bitmap, Map<DecodeHintType, ?> hints) {
+        Result[] found;
+        try {
+            found = reader.decodeMultiple(bitmap, hints);
+        } catch (NotFoundException nfe) {
+            return;
+        }
+        for (Result result : found) {
+            boolean known = false;
+            for (Result other : results) {
+                if (other.getBarcodeFormat() == result.getBarcodeFormat()
+                        && other.getText().equals(result.getText())) {
+                    known = true;
+                    break;
+                }
+            }
+            if (!known) {
+                results.add(result);
+            }
+        }
+    }
+
+    /**
+     * @return whether only formats that can be decoded in any orientation are scanned, so a
+     * portrait crop may be read in sensor orientation
+     */
+    boolean isRotationFree() {
+        return rotationFree;
+    }
+
+    /**
+     * Decodes one framing rect crop. The outcome is kept until the next call.
+     *
+     * @param source     the crop, or null if there was none
+     * @param transposed whether the crop is in sensor orientation while the screen is portrait
+     * @param multiple   whether to look for every code in the frame instead of the first one
+     * @return whether a {@link #getResult() result} or, when decoding multiple codes,
+     * {@link #getResults() results} were found
+     */
+    boolean decode(LuminanceSource source, boolean transposed, boolean multiple) {
+        result = null;
+        results = null;
+        failReason = Scanner.FailReason.NOT_FOUND;
+        focusMeasure = -1f;
+        finderPoints = 0;
+        moduleSizeSum = 0f;
+        moduleSizeCount = 0;
+        //与上次解码失败的画面几乎相同则跳过
+        boolean fingerprinted = source != null && duplicateFilter.isEnabled();
+        if (fingerprinted) {
+            fingerprint.compute(source);
+            if (!duplicateFilter.accept(fingerprint)) {
+                failReason = Scanner.FailReason.DUPLICATE;
+                return false;
+            }
+        }
+        //画面模糊（对焦中或手抖）直接跳过，不跑解码器
+        if (source != null && sharpnessFilter.isEnabled()) {
+            focusMeasure = focusMeter.measure(source);
+            if (!sharpnessFilter.accept(focusMeasure)) {
+                failReason = Scanner.FailReason.BLURRY;
+                return false;
+            }
+        }
+        if (source == null) {
+            return false;
+        }
+        formatReader.nextFrame();
+        if (multiple) {
+            //多码分散在画面各处，不收窄解码区域；大小不一，小图解出大码会漏掉细码，只解原图
+            resultPointMapper.setSource(transposed, source.getHeight(), 0, 0);
+            resultPointMapper.setScale(1);
+            results = binarizerStrategy.decode(source, getMultipleBitmapReader());
+            countFinderPoints();
+            if (results != null) {
+                for (int i = 0; i < results.length; i++) {
+                    results[i] = resultPointMapper.map(results[i]);
+                }
+            }
+        } else {
+            LuminanceSource narrowed = narrowToRoi(source, transposed);
+            result = decodePyramid(narrowed, bitmapReader);
+            if (result != null) {
+                result = resultPointMapper.map(result);
+                roiTracker.addResult(result);
+            }
+        }
+        if (fingerprinted) {
+            //连续扫码时画面里的码已上报过，按失败计，画面不变即可跳过
+            if (result != null) {
+                duplicateFilter.recordSuccess();
+            } else {
+                duplicateFilter.recordFailure(fingerprint);
+            }
+        }
+        return result != null || results != null;
+    }
+
+    /**
+     * @return the result of the last frame when decoding the first code, or null
+     */
+    Result getResult() {
+        return result;
+    }
+
+    /**
+     * @return the results of the last frame when decoding multiple codes, or null
+     */
+    Result[] getResults() {
+        return results;
+    }
+
+    /**
+     * @return a {@link Scanner.FailReason} if the last frame produced nothing
+     */
+    int getFailReason() {
+        return failReason;
+    }
+
+    /**
+     * @return the focus measure of the last frame, or -1 if the blur filter is off or the frame
+     * was skipped before it
+     */
+    float getFocusMeasure() {
+        return focusMeasure;
+    }
+
+    /**
+     * @return finder pattern candidates the readers reported in the last frame
+     */
+    int getFinderPoints() {
+        return finderPoints;
+    }
+
+    /**
+     * @return mean module size the QR finder patterns of the last frame estimated, in frame
+     * pixels, or 0 if there were none
+     */
+    float getModuleSize() {
+        return moduleSizeCount == 0 ? 0f : moduleSizeSum / moduleSizeCount;
+    }
+
+    /**
+     * Tries a half resolution copy of the source first when it is large enough. Full resolution
+     * is only decoded when that pass saw finder patterns but no result, or on a schedule so
+     * codes too fine for half resolution are still found. The {@link ResultPointMapper} is left
+     * set up for the pass that produced the result.
+     */
+    private <T> T decodePyramid(LuminanceSource source, BinarizerStrategy.BitmapReader<T> reader) {
+        if (pyramid && source.getWidth() >= MIN_PYRAMID_SIZE
+                && source.getHeight() >= MIN_PYRAMID_SIZE) {
+            resultPointMapper.setScale(2);
+            T result = binarizerStrategy.decode(halfScaleSource.downscale(source), reader);
+            countFinderPoints();
+            if (result != null) {
+                return result;
+            }
+            //小图发现定位点却没解出，或按周期，才解原图
+            if (resultPointMapper.getPointCount() == 0
+                    && ++lowResolutionMisses % FULL_RESOLUTION_INTERVAL != 0) {
+                return null;
+            }
+        }
+        resultPointMapper.setScale(1);
+        T result = binarizerStrategy.decode(source, reader);
+        countFinderPoints();
+        return result;
+    }
+
+    private void countFinderPoints() {
+        finderPoints += resultPointMapper.getPointCount();
+        moduleSizeSum += resultPointMapper.getModuleSizeSum();
+        moduleSizeCount += resultPointMapper.getModuleSizeCount();
+    }
+
+    /**
+     * Crops the source to the region the {@link RoiTracker} picked, if any, and tells the
+     * {@link ResultPointMapper} how to map points found in the result back.
+     */
+    private LuminanceSource narrowToRoi(LuminanceSource source, boolean transposed) {
+        //roi 为屏幕方向坐标，传感器方向的源需转置后裁剪
+        int cropWidth = transposed ? source.getHeight() : source.getWidth();
+        int cropHeight = transposed ? source.getWidth() : source.getHeight();
+        if (!roiTracker.getRoi(cropWidth, cropHeight, roi)) {
+            resultPointMapper.setSource(transposed, source.getHeight(), 0, 0);
+            return source;
+        }
+        int left = roi[0];
+        int top = roi[1];
+        int roiWidth = roi[2];
+        int roiHeight = roi[3];
+        LuminanceSource narrowed = transposed
+                ? source.crop(top, cropWidth - left - roiWidth, roiHeight, roiWidth)
+                : source.crop(left, top, roiWidth, roiHeight);
+        resultPointMapper.setSource(transposed, narrowed.getHeight(), left, top);
+        return narrowed;
+    }
+
+}
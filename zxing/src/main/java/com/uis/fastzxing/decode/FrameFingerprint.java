@@ -0,0 +1,56 @@
+package com.uis.fastzxing.decode;
+
+import com.google.zxing.LuminanceSource;
+
+/**
+ * An 8x8 grid of mean luminances of a source, small enough to compare every frame with the last
+ * one that failed. Each cell is averaged over a 4x4 sample of its pixels, so a fingerprint reads
+ * 32 rows. Not thread safe: one instance per decode worker.
+ */
+final class FrameFingerprint {
+
+    static final int GRID = 8;
+    private static final int SAMPLES_PER_CELL = 4;
+
+    final int[] cells = new int[GRID * GRID];
+    private byte[] row;
+
+    /**
+     * Replaces this fingerprint with the one of the source.
+     */
+    void compute(LuminanceSource source) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int samples = GRID * SAMPLES_PER_CELL;
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = 0;
+        }
+        for (int sy = 0; sy < samples; sy++) {
+            int y = (sy * 2 + 1) * height / (samples * 2);
+            row = source.getRow(y, row);
+            int cellRow = sy / SAMPLES_PER_CELL * GRID;
+            for (int sx = 0; sx < samples; sx++) {
+                int x = (sx * 2 + 1) * width / (samples * 2);
+                cells[cellRow + sx / SAMPLES_PER_CELL] += row[x] & 0xff;
+            }
+        }
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] /= SAMPLES_PER_CELL * SAMPLES_PER_CELL;
+        }
+    }
+
+    /**
+     * @return largest absolute difference of any one cell luminance, 0 to 255, so a change
+     * confined to a single cell counts in full
+     */
+    static int distance(int[] a, int[] b) {
+        int max = 0;
+        for (int i = 0; i < a.length; i++) {
+            int difference = Math.abs(a[i] - b[i]);
+            if (difference > max) {
+                max = difference;
+            }
+        }
+        return max;
+    }
+}
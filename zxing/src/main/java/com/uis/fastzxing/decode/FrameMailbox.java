@@ -0,0 +1,112 @@
+package com.uis.fastzxing.decode;
+
+import com.uis.fastzxing.camera.FrameReceiver;
+import com.uis.fastzxing.camera.FrameSource;
+import com.uis.fastzxing.common.ScanMetrics;
+import com.uis.fastzxing.common.Scanner;
+
+import java.util.ArrayDeque;
+
+/**
+ * Single-slot mailbox between the camera stream and the decode workers. The camera posts every
+ * frame; a newer frame replaces an older one that nobody took yet. A worker that finishes a frame
+ * takes the freshest one straight from here, and a worker that finds the box empty parks until
+ * the next frame is handed to it directly.
+ */
+final class FrameMailbox implements FrameReceiver {
+
+    private final FrameSource frameSource;
+    private final ArrayDeque<DecodeHandler> parked;
+    private final ScanMetrics scanMetrics;
+    private byte[] data;
+    private int width;
+    private int height;
+    private boolean open;
+    private int generation;
+
+    /**
+     * @param scanMetrics counts frames replaced before a worker took them, may be null
+     */
+    FrameMailbox(FrameSource frameSource, int workerCount, ScanMetrics scanMetrics) {
+        this.frameSource = frameSource;
+        this.scanMetrics = scanMetrics;
+        parked = new ArrayDeque<>(workerCount);
+    }
+
+    @Override
+    public void onPreviewFrame(byte[] data, int width, int height) {
+        byte[] stale;
+        DecodeHandler worker = null;
+        synchronized (this) {
+            if (!open) {
+                stale = data;
+            } else if (!parked.isEmpty()) {
+                stale = null;
+                worker = parked.pop();
+                worker.assignFrame(generation, width, height);
+            } else {
+                stale = this.data;
+                if (stale != null && scanMetrics != null) {
+                    scanMetrics.onFrameDropped();
+                }
+                this.data = data;
+                this.width = width;
+                this.height = height;
+            }
+        }
+        if (stale != null) {
+            frameSource.releasePreviewFrame(stale);
+        }
+        if (worker != null) {
+            worker.obtainMessage(Scanner.DECODE, width, height, data).sendToTarget();
+        }
+    }
+
+    /**
+     * Takes the waiting frame for a worker that just became idle, or parks the worker if there is
+     * none. The frame size and generation are {@link DecodeHandler#assignFrame assigned} to the
+     * worker.
+     *
+     * @return the frame to decode next, or null if the worker was parked
+     */
+    synchronized byte[] takeOrPark(DecodeHandler worker) {
+        if (open && data != null) {
+            byte[] frame = data;
+            data = null;
+            worker.assignFrame(generation, width, height);
+            return frame;
+        }
+        if (!parked.contains(worker)) {
+            parked.push(worker);
+        }
+        return null;
+    }
+
+    /**
+     * Starts accepting frames for a new scan.
+     */
+    synchronized void open() {
+        open = true;
+    }
+
+    /**
+     * Stops accepting frames; results of frames taken before this call are no longer
+     * {@link #isCurrent current}.
+     */
+    void close() {
+        byte[] stale;
+        synchronized (this) {
+            open = false;
+            generation++;
+            stale = data;
+            data = null;
+        }
+        if (stale != null) {
+            frameSource.releasePreviewFrame(stale);
+        }
+    }
+
+    synchronized boolean isCurrent(int frameGeneration) {
+        return open && frameGeneration == generation;
+    }
+}
@@ -0,0 +1,131 @@
+package com.uis.fastzxing.decode;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Keeps the last preview frames the decode workers saw in a memory-mapped ring file, so frames a
+ * device failed on can be pulled off it, {@link FrameRecording read back} and replayed offline,
+ * e.g. with the demo's FrameReplay tool. Each slot holds the raw NV21 frame with its size,
+ * orientation and framing rect; once the ring is full the oldest slot is overwritten. Recording
+ * copies into the mapping and allocates nothing.
+ *
+ * <p>File layout, big endian: a {@value #HEADER_SIZE} byte header of magic, version, slot count,
+ * frame capacity and the last sequence number written, then the slots. A slot is a
+ * {@value #SLOT_HEADER_SIZE} byte header of sequence number, capture time in nanoseconds, width,
+ * height, orientation, framing rect left, top, right, bottom and data length, followed by the
+ * frame data. The sequence number is written last, and is 0 while a slot is empty or being
+ * written.</p>
+ */
+public final class FrameRecorder {
+
+    static final int MAGIC = 0x465a5243;//"FZRC"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int SLOT_HEADER_SIZE = 48;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int slotCount;
+    private final int frameCapacity;
+    private long sequence;
+    private boolean closed;
+
+    /**
+     * Creates or truncates the file and maps all of it. The file is mapped as one buffer, so it
+     * is limited to 2 GB, i.e. {@code slotCount} frames of {@code maxWidth * maxHeight * 3 / 2}
+     * bytes plus their headers must stay below {@link Integer#MAX_VALUE} bytes.
+     *
+     * @param slotCount number of frames kept
+     * @param maxWidth  widest preview frame that will be recorded
+     * @param maxHeight tallest preview frame that will be recorded
+     * @throws IllegalArgumentException if the file would exceed 2 GB
+     */
+    public FrameRecorder(File path, int slotCount, int maxWidth, int maxHeight)
+            throws IOException {
+        this.slotCount = Math.max(1, slotCount);
+        //NV21：Y 平面加一半大小的 VU 平面
+        long capacity = (long) maxWidth * maxHeight * 3 / 2;
+        long size = HEADER_SIZE + this.slotCount * (SLOT_HEADER_SIZE + capacity);
+        //槽位偏移按 int 计算，一次映射也不能超过 2G，打开文件前检查
+        if (capacity < 0 || size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Recording of " + this.slotCount + " frames of "
+                    + maxWidth + "x" + maxHeight + " exceeds 2 GB");
+        }
+        this.frameCapacity = (int) capacity;
+        file = new RandomAccessFile(path, "rw");
+        try {
+            file.setLength(0);
+            file.setLength(size);
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, this.slotCount);
+        buffer.putInt(12, frameCapacity);
+        buffer.putLong(16, 0);
+    }
+
+    /**
+     * Appends a frame, overwriting the oldest one if the ring is full.
+     *
+     * @param orientation degrees the frame is rotated clockwise for display, 0 or 90
+     * @return false if the frame does not fit a slot or the recorder is closed
+     */
+    public synchronized boolean record(byte[] data, int width, int height, int orientation,
+                                       int left, int top, int right, int bottom,
+                                       long captureNanos) {
+        if (closed || data.length > frameCapacity) {
+            return false;
+        }
+        long next = sequence + 1;
+        int slot = (int) ((next - 1) % slotCount);
+        int offset = HEADER_SIZE + slot * (SLOT_HEADER_SIZE + frameCapacity);
+        buffer.putLong(offset, 0);
+        buffer.putLong(offset + 8, captureNanos);
+        buffer.putInt(offset + 16, width);
+        buffer.putInt(offset + 20, height);
+        buffer.putInt(offset + 24, orientation);
+        buffer.putInt(offset + 28, left);
+        buffer.putInt(offset + 32, top);
+        buffer.putInt(offset + 36, right);
+        buffer.putInt(offset + 40, bottom);
+        buffer.putInt(offset + 44, data.length);
+        buffer.position(offset + SLOT_HEADER_SIZE);
+        buffer.put(data, 0, data.length);
+        buffer.putLong(offset, next);
+        buffer.putLong(16, next);
+        sequence = next;
+        return true;
+    }
+
+    /**
+     * @return frames recorded so far, including overwritten ones
+     */
+    public synchronized long getRecorded() {
+        return sequence;
+    }
+
+    /**
+     * Writes the mapping out to storage, e.g. when the scan session pauses.
+     */
+    public synchronized void flush() {
+        if (!closed) {
+            buffer.force();
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            buffer.force();
+            file.close();
+        }
+    }
+}
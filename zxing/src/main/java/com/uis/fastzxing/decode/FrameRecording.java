@@ -0,0 +1,112 @@
+package com.uis.fastzxing.decode;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Read side of a {@link FrameRecorder} file: its complete frames, oldest first. Frame data is
+ * read in place from a read-only mapping of the file.
+ */
+public final class FrameRecording {
+
+    private final MappedByteBuffer buffer;
+    private final long[] sequences;
+    private final int[] offsets;
+
+    public FrameRecording(File path) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path, "r");
+        try {
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        } finally {
+            //映射在文件关闭后依然有效
+            file.close();
+        }
+        if (buffer.capacity() < FrameRecorder.HEADER_SIZE
+                || buffer.getInt(0) != FrameRecorder.MAGIC
+                || buffer.getInt(4) != FrameRecorder.VERSION) {
+            throw new IOException("Not a frame recording: " + path);
+        }
+        int slotCount = buffer.getInt(8);
+        int slotSize = FrameRecorder.SLOT_HEADER_SIZE + buffer.getInt(12);
+        List<long[]> slots = new ArrayList<>(slotCount);
+        for (int slot = 0; slot < slotCount; slot++) {
+            int offset = FrameRecorder.HEADER_SIZE + slot * slotSize;
+            long sequence = buffer.getLong(offset);
+            if (sequence > 0) {
+                slots.add(new long[]{sequence, offset});
+            }
+        }
+        //按写入顺序回放
+        Collections.sort(slots, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                return a[0] < b[0] ? -1 : a[0] == b[0] ? 0 : 1;
+            }
+        });
+        sequences = new long[slots.size()];
+        offsets = new int[slots.size()];
+        for (int i = 0; i < sequences.length; i++) {
+            sequences[i] = slots.get(i)[0];
+            offsets[i] = (int) slots.get(i)[1];
+        }
+    }
+
+    public int size() {
+        return sequences.length;
+    }
+
+    public long getSequence(int index) {
+        return sequences[index];
+    }
+
+    public long getCaptureNanos(int index) {
+        return buffer.getLong(offsets[index] + 8);
+    }
+
+    public int getWidth(int index) {
+        return buffer.getInt(offsets[index] + 16);
+    }
+
+    public int getHeight(int index) {
+        return buffer.getInt(offsets[index] + 20);
+    }
+
+    /**
+     * @return 90 if the frame was shown in portrait, else 0
+     */
+    public int getOrientation(int index) {
+        return buffer.getInt(offsets[index] + 24);
+    }
+
+    /**
+     * @param rect receives left, top, right and bottom of the framing rect as seen on screen
+     */
+    public void getFramingRect(int index, int[] rect) {
+        int offset = offsets[index];
+        for (int i = 0; i < 4; i++) {
+            rect[i] = buffer.getInt(offset + 28 + 4 * i);
+        }
+    }
+
+    public int getLength(int index) {
+        return buffer.getInt(offsets[index] + 44);
+    }
+
+    /**
+     * @return the frame data inside the mapping, read in place
+     */
+    public ByteBuffer getBuffer(int index) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offsets[index] + FrameRecorder.SLOT_HEADER_SIZE);
+        view.limit(view.position() + getLength(index));
+        return view.slice();
+    }
+}
@@ -0,0 +1,36 @@
+package com.uis.fastzxing.decode;
+
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.PlanarYUVLuminanceSource;
+
+/**
+ * Builds the half resolution level of a luminance source pyramid: each output pixel is the mean
+ * of a 2x2 block. The pixel buffer and row buffers are kept between frames and only grow, so
+ * steady state scanning allocates nothing but the small source wrapper. Not thread safe: one
+ * instance per decode worker, and a returned source is only valid until the next call.
+ */
+final class HalfScaleSource {
+
+    private byte[] pixels;
+    private byte[] upper;
+    private byte[] lower;
+
+    LuminanceSource downscale(LuminanceSource source) {
+        int width = source.getWidth() / 2;
+        int height = source.getHeight() / 2;
+        if (pixels == null || pixels.length < width * height) {
+            pixels = new byte[width * height];
+        }
+        for (int y = 0; y < height; y++) {
+            upper = source.getRow(2 * y, upper);
+            lower = source.getRow(2 * y + 1, lower);
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                int sum = (upper[2 * x] & 0xff) + (upper[2 * x + 1] & 0xff)
+                        + (lower[2 * x] & 0xff) + (lower[2 * x + 1] & 0xff);
+                pixels[offset + x] = (byte) ((sum + 2) >> 2);
+            }
+        }
+        return new PlanarYUVLuminanceSource(pixels, width, height, 0, 0, width, height, false);
+    }
+}
@@ -0,0 +1,86 @@
+package com.uis.fastzxing.decode;
+
+import com.google.zxing.LuminanceSource;
+
+import java.util.Arrays;
+
+/**
+ * Measures how bright a luminance source is from a histogram of a sparse grid of pixels: the
+ * mean, the share of dark pixels and the share of nearly white ones, which with the torch on
+ * usually means glare off a glossy code. Not thread safe: one instance per decode worker.
+ */
+final class LightMeter {
+
+    /**
+     * Grid rows and columns sampled per frame.
+     */
+    private static final int SAMPLES = 32;
+    private static final int BIN_SHIFT = 3;
+    private static final int BIN_COUNT = 256 >> BIN_SHIFT;
+    /**
+     * Pixels below this level count as dark.
+     */
+    private static final int DARK_LEVEL = 48;
+    /**
+     * Pixels at or above this level count as saturated.
+     */
+    private static final int SATURATED_LEVEL = 232;
+
+    private final int[] histogram = new int[BIN_COUNT];
+    private byte[] row;
+    private float mean;
+    private float darkFraction;
+    private float saturatedFraction;
+
+    /**
+     * @return whether the source was large enough to measure
+     */
+    boolean measure(LuminanceSource source) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        if (width < 1 || height < 1) {
+            return false;
+        }
+        Arrays.fill(histogram, 0);
+        int rowStep = Math.max(1, height / SAMPLES);
+        int columnStep = Math.max(1, width / SAMPLES);
+        long sum = 0;
+        int count = 0;
+        for (int y = rowStep / 2; y < height; y += rowStep) {
+            row = source.getRow(y, row);
+            for (int x = columnStep / 2; x < width; x += columnStep) {
+                int luminance = row[x] & 0xff;
+                histogram[luminance >> BIN_SHIFT]++;
+                sum += luminance;
+                count++;
+            }
+        }
+        int dark = 0;
+        for (int bin = 0; bin < DARK_LEVEL >> BIN_SHIFT; bin++) {
+            dark += histogram[bin];
+        }
+        int saturated = 0;
+        for (int bin = SATURATED_LEVEL >> BIN_SHIFT; bin < BIN_COUNT; bin++) {
+            saturated += histogram[bin];
+        }
+        mean = (float) sum / count;
+        darkFraction = (float) dark / count;
+        saturatedFraction = (float) saturated / count;
+        return true;
+    }
+
+    /**
+     * @return mean luminance of the last measured source, 0 to 255
+     */
+    float getMean() {
+        return mean;
+    }
+
+    float getDarkFraction() {
+        return darkFraction;
+    }
+
+    float getSaturatedFraction() {
+        return saturatedFraction;
+    }
+}
@@ -5,13 +5,10 @@ import android.graphics.BitmapFactory;
 
 import com.google.zxing.BarcodeFormat;
 import com.google.zxing.BinaryBitmap;
-import com.google.zxing.ChecksumException;
 import com.google.zxing.DecodeHintType;
-import com.google.zxing.FormatException;
-import com.google.zxing.NotFoundException;
 import com.google.zxing.RGBLuminanceSource;
+import com.google.zxing.ReaderException;
 import com.google.zxing.Result;
-import com.google.zxing.common.GlobalHistogramBinarizer;
 import com.google.zxing.qrcode.QRCodeReader;
 import com.uis.fastzxing.OnScannerCompletionListener;
 import com.uis.fastzxing.camera.CameraManager;
@@ -37,6 +34,12 @@ public final class QRDecode {
         HINTS.put(DecodeHintType.CHARACTER_SET, "utf-8");
     }
 
+    /**
+     * 图片只解一次，失败时两种二值化都要试
+     */
+    private static final BinarizerStrategy BINARIZER_STRATEGY =
+            new BinarizerStrategy(BinarizerStrategy.Mode.FALLBACK);
+
     private QRDecode() {
     }
 
@@ -69,24 +72,27 @@ public final class QRDecode {
             srcBitmap.getPixels(pixels, 0, width, 0, 0, width, height);
             //新建一个RGBLuminanceSource对象
             RGBLuminanceSource source = new RGBLuminanceSource(width, height, pixels);
-            //将图片转换成二进制图片
-            BinaryBitmap binaryBitmap = new BinaryBitmap(new GlobalHistogramBinarizer(source));
-            QRCodeReader reader = new QRCodeReader();//初始化解析对象
-            try {
-                result = reader.decode(binaryBitmap, HINTS);//开始解析
-            } catch (NotFoundException e) {
-                e.printStackTrace();
-            } catch (ChecksumException e) {
-                e.printStackTrace();
-            } catch (FormatException e) {
-                e.printStackTrace();
-            }
+            final QRCodeReader reader = new QRCodeReader();//初始化解析对象
+            //先用命中率高的二值化方式解析，失败再换另一种
+            result = BINARIZER_STRATEGY.decode(source, new BinarizerStrategy.BitmapReader<Result>() {
+                @Override
+                public Result decode(BinaryBitmap bitmap) throws ReaderException {
+                    return reader.decode(bitmap, HINTS);
+                }
+            });
         }
         if (listener != null) {
             listener.OnScannerCompletion(result, Scanner.parseResult(result), srcBitmap);
         }
     }
 
+    /**
+     * 图片解析所用的二值化策略，可查看各方式的命中统计
+     */
+    public static BinarizerStrategy getBinarizerStrategy() {
+        return BINARIZER_STRATEGY;
+    }
+
     private static Bitmap loadBitmap(String picturePath) throws FileNotFoundException {
         BitmapFactory.Options opt = new BitmapFactory.Options();
         opt.inJustDecodeBounds = true;
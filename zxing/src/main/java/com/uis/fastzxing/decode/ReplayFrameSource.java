@@ -0,0 +1,127 @@
+package com.uis.fastzxing.decode;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.uis.fastzxing.camera.PacedFrameSource;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Plays frames back into the scanner at a fixed rate: either a {@link FrameRecorder} file, with
+ * each frame's recorded framing rect and orientation, or a directory of images decoded through
+ * the whole frame in name order. Lets a failure captured on one device be stepped through the
+ * live pipeline, UI included, on another.
+ */
+public final class ReplayFrameSource extends PacedFrameSource {
+
+    private final FrameRecording recording;
+    private final File[] images;
+    private final boolean loop;
+    private final int[] rect = new int[4];
+    private int[] pixels;
+
+    /**
+     * @param path a recording or a directory of images
+     * @param loop whether to start over after the last frame instead of stopping
+     * @throws IOException if the path is neither
+     */
+    public ReplayFrameSource(File path, float fps, boolean loop) throws IOException {
+        super(fps);
+        this.loop = loop;
+        if (path.isDirectory()) {
+            recording = null;
+            images = path.listFiles(new FileFilter() {
+                @Override
+                public boolean accept(File file) {
+                    String name = file.getName().toLowerCase(Locale.US);
+                    return file.isFile() && (name.endsWith(".jpg") || name.endsWith(".jpeg")
+                            || name.endsWith(".png") || name.endsWith(".webp")
+                            || name.endsWith(".bmp"));
+                }
+            });
+            if (images == null || images.length == 0) {
+                throw new IOException("No images in " + path);
+            }
+            Arrays.sort(images);
+        } else {
+            recording = new FrameRecording(path);
+            images = null;
+            //录制时的屏幕方向
+            setPortrait(recording.size() > 0 && recording.getOrientation(0) == 90);
+        }
+    }
+
+    /**
+     * @return number of frames in one pass
+     */
+    public int getFrameCount() {
+        return recording != null ? recording.size() : images.length;
+    }
+
+    @Override
+    protected boolean render(Frame frame, long index) {
+        int count = getFrameCount();
+        if (count == 0 || (!loop && index >= count)) {
+            return false;
+        }
+        int i = (int) (index % count);
+        return recording != null ? renderRecorded(frame, i) : renderImage(frame, images[i]);
+    }
+
+    private boolean renderRecorded(Frame frame, int i) {
+        //直接在映射上解码，数组只用于标识帧
+        if (frame.data == null || frame.data.length != 0) {
+            frame.data = new byte[0];
+        }
+        frame.buffer = recording.getBuffer(i);
+        frame.rowStride = recording.getWidth(i);
+        frame.pixelStride = 1;
+        recording.getFramingRect(i, rect);
+        frame.width = recording.getWidth(i);
+        frame.height = recording.getHeight(i);
+        frame.framingRect.set(rect[0], rect[1], rect[2], rect[3]);
+        return true;
+    }
+
+    private boolean renderImage(Frame frame, File image) {
+        Bitmap bitmap = BitmapFactory.decodeFile(image.getPath());
+        if (bitmap == null) {
+            return false;
+        }
+        try {
+            int width = bitmap.getWidth();
+            int height = bitmap.getHeight();
+            int ySize = width * height;
+            int length = ySize + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+            if (frame.data == null || frame.data.length != length) {
+                frame.data = new byte[length];
+            }
+            frame.buffer = null;
+            if (pixels == null || pixels.length < ySize) {
+                pixels = new int[ySize];
+            }
+            bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+            byte[] data = frame.data;
+            //亮度与 RGBLuminanceSource 算法一致，色度置灰
+            for (int p = 0; p < ySize; p++) {
+                int pixel = pixels[p];
+                int r = (pixel >> 16) & 0xff;
+                int g2 = (pixel >> 7) & 0x1fe;
+                int b = pixel & 0xff;
+                data[p] = (byte) ((r + g2 + b) / 4);
+            }
+            Arrays.fill(data, ySize, length, (byte) 128);
+            frame.width = width;
+            frame.height = height;
+            frame.framingRect.set(0, 0, width, height);
+            return true;
+        } finally {
+            bitmap.recycle();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.uis.fastzxing.decode;
+
+import com.google.zxing.Result;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers recently reported results so continuous scanning reports each code once while it
+ * stays in view. A code is reported again once it has not been seen for the time to live. The
+ * least recently seen codes are evicted beyond the capacity. Instances are thread safe.
+ */
+public final class ResultCache {
+
+    public static final int DEFAULT_CAPACITY = 64;
+    public static final long DEFAULT_TTL_MS = 5000L;
+
+    private final LinkedHashMap<String, Long> lastSeen;
+    private int capacity;
+    private long ttlMs;
+
+    public ResultCache() {
+        this(DEFAULT_CAPACITY, DEFAULT_TTL_MS);
+    }
+
+    public ResultCache(int capacity, long ttlMs) {
+        lastSeen = new LinkedHashMap<>(16, 0.75f, true);
+        this.capacity = Math.max(1, capacity);
+        this.ttlMs = ttlMs;
+    }
+
+    public synchronized void setCapacity(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        trim();
+    }
+
+    /**
+     * @param ttlMs how long a code must be out of view before it is reported again
+     */
+    public synchronized void setTtl(long ttlMs) {
+        this.ttlMs = ttlMs;
+    }
+
+    /**
+     * Marks the result as seen now.
+     *
+     * @return whether the result is new, i.e. should be reported
+     */
+    public synchronized boolean offer(Result result, long nowMs) {
+        String key = result.getBarcodeFormat() + ":" + result.getText();
+        Long seen = lastSeen.put(key, nowMs);
+        if (seen != null && nowMs - seen < ttlMs) {
+            return false;
+        }
+        trim();
+        return true;
+    }
+
+    public synchronized void clear() {
+        lastSeen.clear();
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, Long>> eldest = lastSeen.entrySet().iterator();
+        while (lastSeen.size() > capacity && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+}
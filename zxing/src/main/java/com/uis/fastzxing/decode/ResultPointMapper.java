@@ -0,0 +1,128 @@
+package com.uis.fastzxing.decode;
+
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.ResultPointCallback;
+import com.google.zxing.qrcode.detector.FinderPattern;
+
+/**
+ * Maps points found in the decoded luminance source back to framing rect coordinates as they
+ * appear on screen, before handing them to the viewfinder and the {@link RoiTracker}. A
+ * sensor-oriented portrait crop is transposed relative to the screen: source point (x, y) is
+ * screen point (height - 1 - y, x). A source narrowed to a region of the framing rect is then
+ * shifted by the region's offset, and points found in a downscaled pass are scaled up first.
+ */
+final class ResultPointMapper implements ResultPointCallback {
+
+    private final ResultPointCallback delegate;
+    private final RoiTracker roiTracker;
+    private boolean transposed;
+    private int sourceHeight;
+    private int left;
+    private int top;
+    private int scale = 1;
+    private int pointCount;
+    private float moduleSizeSum;
+    private int moduleSizeCount;
+
+    ResultPointMapper(ResultPointCallback delegate, RoiTracker roiTracker) {
+        this.delegate = delegate;
+        this.roiTracker = roiTracker;
+    }
+
+    /**
+     * @param transposed   whether the next decoded source is sensor-oriented in portrait
+     * @param sourceHeight height of that source
+     * @param left         left of the decoded region in the framing rect, as on screen
+     * @param top          top of the decoded region in the framing rect, as on screen
+     */
+    void setSource(boolean transposed, int sourceHeight, int left, int top) {
+        this.transposed = transposed;
+        this.sourceHeight = sourceHeight;
+        this.left = left;
+        this.top = top;
+    }
+
+    /**
+     * @param scale how many source pixels one pixel of the next decoded pass covers per side
+     */
+    void setScale(int scale) {
+        this.scale = scale;
+        pointCount = 0;
+        moduleSizeSum = 0f;
+        moduleSizeCount = 0;
+    }
+
+    /**
+     * @return finder pattern candidates reported since the last {@link #setScale}
+     */
+    int getPointCount() {
+        return pointCount;
+    }
+
+    /**
+     * @return sum of the module sizes QR finder patterns reported since the last
+     * {@link #setScale} estimated, in source pixels before downscaling
+     */
+    float getModuleSizeSum() {
+        return moduleSizeSum;
+    }
+
+    /**
+     * @return QR finder patterns reported since the last {@link #setScale}
+     */
+    int getModuleSizeCount() {
+        return moduleSizeCount;
+    }
+
+    @Override
+    public void foundPossibleResultPoint(ResultPoint point) {
+        pointCount++;
+        //二维码定位点带有模块大小估计，缩小的图需换算回原图
+        if (point instanceof FinderPattern) {
+            moduleSizeSum += ((FinderPattern) point).getEstimatedModuleSize() * scale;
+            moduleSizeCount++;
+        }
+        ResultPoint mapped = map(point);
+        if (roiTracker != null) {
+            roiTracker.addPoint(mapped);
+        }
+        if (delegate != null) {
+            delegate.foundPossibleResultPoint(mapped);
+        }
+    }
+
+    private boolean isIdentity() {
+        return !transposed && left == 0 && top == 0 && scale == 1;
+    }
+
+    ResultPoint map(ResultPoint point) {
+        if (point == null || isIdentity()) {
+            return point;
+        }
+        float x = point.getX() * scale;
+        float y = point.getY() * scale;
+        if (transposed) {
+            return new ResultPoint(left + sourceHeight - 1 - y, top + x);
+        }
+        return new ResultPoint(left + x, top + y);
+    }
+
+    Result map(Result result) {
+        if (result == null || isIdentity()) {
+            return result;
+        }
+        ResultPoint[] points = result.getResultPoints();
+        ResultPoint[] mapped = null;
+        if (points != null) {
+            mapped = new ResultPoint[points.length];
+            for (int i = 0; i < points.length; i++) {
+                mapped[i] = map(points[i]);
+            }
+        }
+        Result mappedResult = new Result(result.getText(), result.getRawBytes(),
+                result.getNumBits(), mapped, result.getBarcodeFormat(), result.getTimestamp());
+        mappedResult.putAllMetadata(result.getResultMetadata());
+        return mappedResult;
+    }
+}
@@ -0,0 +1,164 @@
+package com.uis.fastzxing.decode;
+
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+
+import java.util.Arrays;
+
+/**
+ * Narrows the decoded part of the framing rect around where a barcode was last seen. Finder
+ * pattern candidates reported while decoding, and the points of results, are kept for
+ * {@link #POINT_TIMEOUT_MS}; while any are fresh, frames are cropped to their padded bounding
+ * box. Once they expire the crop relaxes back to the whole framing rect, and every
+ * {@link #FULL_FRAME_INTERVAL}th frame is decoded whole anyway so a second code elsewhere is not
+ * missed. Coordinates are relative to the framing rect, oriented as on screen. Instances are
+ * thread safe and meant to be shared by all decode workers of a scan session.
+ */
+public final class RoiTracker {
+
+    private static final long POINT_TIMEOUT_MS = 500L;
+    private static final int MAX_POINTS = 16;
+    /**
+     * Padding added on each side, as a share of the bounding box size.
+     */
+    private static final float PADDING = 0.5f;
+    /**
+     * Smallest region, as a share of the framing rect, so a lone candidate still gets a region
+     * large enough to hold its code.
+     */
+    private static final float MIN_SHARE = 0.4f;
+    private static final int FULL_FRAME_INTERVAL = 4;
+
+    private boolean enabled = true;
+    private final float[] pointX = new float[MAX_POINTS];
+    private final float[] pointY = new float[MAX_POINTS];
+    private final long[] pointTime = new long[MAX_POINTS];
+    private int next;
+    private long frames;
+    private long narrowed;
+
+    public RoiTracker() {
+        Arrays.fill(pointTime, Long.MIN_VALUE);
+    }
+
+    public synchronized void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records a finder pattern candidate.
+     */
+    synchronized void addPoint(ResultPoint point) {
+        pointX[next] = point.getX();
+        pointY[next] = point.getY();
+        pointTime[next] = nowMs();
+        next = (next + 1) % MAX_POINTS;
+    }
+
+    /**
+     * Records the points of a decoded result.
+     */
+    void addResult(Result result) {
+        ResultPoint[] points = result.getResultPoints();
+        if (points != null) {
+            for (ResultPoint point : points) {
+                if (point != null) {
+                    addPoint(point);
+                }
+            }
+        }
+    }
+
+    /**
+     * Picks the region to decode in the next frame.
+     *
+     * @param width  width of the framing rect
+     * @param height height of the framing rect
+     * @param roi    receives left, top, width and height of the region
+     * @return false to decode the whole framing rect, in which case {@code roi} means nothing
+     */
+    synchronized boolean getRoi(int width, int height, int[] roi) {
+        if (!enabled || frames++ % FULL_FRAME_INTERVAL == 0) {
+            return false;
+        }
+        long expired = nowMs() - POINT_TIMEOUT_MS;
+        float minX = Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE;
+        float maxY = -Float.MAX_VALUE;
+        boolean found = false;
+        for (int i = 0; i < MAX_POINTS; i++) {
+            if (pointTime[i] > expired) {
+                found = true;
+                minX = Math.min(minX, pointX[i]);
+                minY = Math.min(minY, pointY[i]);
+                maxX = Math.max(maxX, pointX[i]);
+                maxY = Math.max(maxY, pointY[i]);
+            }
+        }
+        if (!found) {
+            return false;
+        }
+        int roiWidth = span(minX, maxX, width, roi, 0);
+        int roiHeight = span(minY, maxY, height, roi, 1);
+        if (roiWidth == width && roiHeight == height) {
+            return false;
+        }
+        roi[2] = roiWidth;
+        roi[3] = roiHeight;
+        narrowed++;
+        return true;
+    }
+
+    /**
+     * Pads [min, max] and clamps it to [0, size).
+     *
+     * @return the length of the span; its start is written to {@code out[index]}
+     */
+    private static int span(float min, float max, int size, int[] out, int index) {
+        float length = max - min;
+        float padded = Math.max(length * (1 + 2 * PADDING), size * MIN_SHARE);
+        float center = (min + max) / 2;
+        int start = Math.max(0, (int) (center - padded / 2));
+        int end = Math.min(size, (int) Math.ceil(center + padded / 2));
+        if (end <= start) {
+            start = 0;
+            end = size;
+        }
+        out[index] = start;
+        return end - start;
+    }
+
+    /**
+     * @return frames decoded with a narrowed region
+     */
+    public synchronized long getNarrowed() {
+        return narrowed;
+    }
+
+    public synchronized long getFrames() {
+        return frames;
+    }
+
+    /**
+     * Forgets all points and statistics.
+     */
+    public synchronized void reset() {
+        Arrays.fill(pointTime, Long.MIN_VALUE);
+        frames = 0;
+        narrowed = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RoiTracker{" + narrowed + "/" + frames + " frames narrowed}";
+    }
+
+    private static long nowMs() {
+        return System.nanoTime() / 1000000L;
+    }
+}
@@ -0,0 +1,330 @@
+package com.uis.fastzxing.decode;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+import com.uis.fastzxing.camera.PreviewCrop;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * The scanner's decode path without a camera, a view or a looper: give it a {@link ScanFrame},
+ * get the results back, on the calling thread or through a {@link Callback}. Frames go through
+ * the same half resolution pass, binarizer strategy and format schedule as live preview frames,
+ * and what those learn is shared by every caller of the engine.
+ *
+ * <p>The unchanged scene and blur filters and the decode region tracker judge a frame by the
+ * frames before it, so they only make sense for a single stream of frames decoded in order, such
+ * as a camera preview. They are off by default, so unrelated calls do not affect each other's
+ * results; an engine fed one stream can turn them on or share enabled ones.</p>
+ *
+ * <p>Thread safe. Each call borrows a set of readers from a pool and returns it afterwards, so
+ * concurrent calls decode in parallel and readers are reused instead of rebuilt per frame.
+ * Settings apply to readers created after the change; set them up before decoding.</p>
+ */
+public final class ScanEngine {
+
+    public interface Callback {
+
+        /**
+         * @param results the first code found, or every code when decoding multiple
+         */
+        void onDecoded(ScanFrame frame, Result[] results);
+
+        /**
+         * @param failReason a {@link com.uis.fastzxing.common.Scanner.FailReason}
+         */
+        void onFailed(ScanFrame frame, int failReason);
+    }
+
+    private final Map<DecodeHintType, Object> hints;
+    private final ArrayDeque<FrameDecoder> idle = new ArrayDeque<>();
+    private int generation;
+    private BinarizerStrategy binarizerStrategy = new BinarizerStrategy();
+    private FormatScheduler formatScheduler = new FormatScheduler();
+    private SharpnessFilter sharpnessFilter = new SharpnessFilter();
+    private DuplicateFilter duplicateFilter = new DuplicateFilter();
+    private RoiTracker roiTracker = new RoiTracker();
+    private boolean pyramid = true;
+
+    /**
+     * Decodes the formats the scanner decodes by default.
+     */
+    public ScanEngine() {
+        this(null);
+    }
+
+    /**
+     * @param hints reader hints; without {@link DecodeHintType#POSSIBLE_FORMATS} the formats the
+     *              scanner decodes by default are used
+     */
+    public ScanEngine(Map<DecodeHintType, ?> hints) {
+        this.hints = new EnumMap<>(DecodeHintType.class);
+        if (hints != null) {
+            this.hints.putAll(hints);
+        }
+        Object formats = this.hints.get(DecodeHintType.POSSIBLE_FORMATS);
+        if (!(formats instanceof Collection) || ((Collection<?>) formats).isEmpty()) {
+            Collection<BarcodeFormat> defaults = EnumSet.noneOf(BarcodeFormat.class);
+            defaults.addAll(DecodeFormatManager.PRODUCT_FORMATS);
+            defaults.addAll(DecodeFormatManager.INDUSTRIAL_FORMATS);
+            defaults.addAll(DecodeFormatManager.QR_CODE_FORMATS);
+            defaults.addAll(DecodeFormatManager.DATA_MATRIX_FORMATS);
+            this.hints.put(DecodeHintType.POSSIBLE_FORMATS, defaults);
+        }
+        //逐帧状态跨调用共享，互不相关的帧会相互影响，默认关闭
+        sharpnessFilter.setEnabled(false);
+        duplicateFilter.setEnabled(false);
+        roiTracker.setEnabled(false);
+    }
+
+    public synchronized void setBinarizerStrategy(BinarizerStrategy binarizerStrategy) {
+        this.binarizerStrategy = binarizerStrategy;
+        invalidate();
+    }
+
+    public synchronized void setFormatScheduler(FormatScheduler formatScheduler) {
+        this.formatScheduler = formatScheduler;
+        invalidate();
+    }
+
+    /**
+     * Only for an engine fed a single stream of frames in order; the engine's own filter is off.
+     */
+    public synchronized void setSharpnessFilter(SharpnessFilter sharpnessFilter) {
+        this.sharpnessFilter = sharpnessFilter;
+        invalidate();
+    }
+
+    /**
+     * Only for an engine fed a single stream of frames in order; the engine's own filter is off.
+     */
+    public synchronized void setDuplicateFilter(DuplicateFilter duplicateFilter) {
+        this.duplicateFilter = duplicateFilter;
+        invalidate();
+    }
+
+    /**
+     * Only for an engine fed a single stream of frames in order; the engine's own tracker is off.
+     */
+    public synchronized void setRoiTracker(RoiTracker roiTracker) {
+        this.roiTracker = roiTracker;
+        invalidate();
+    }
+
+    /**
+     * @param pyramid whether large regions are decoded at half resolution first when decoding a
+     *                single code, default true
+     */
+    public synchronized void setPyramid(boolean pyramid) {
+        this.pyramid = pyramid;
+        invalidate();
+    }
+
+    public synchronized boolean isPyramid() {
+        return pyramid;
+    }
+
+    public synchronized BinarizerStrategy getBinarizerStrategy() {
+        return binarizerStrategy;
+    }
+
+    public synchronized FormatScheduler getFormatScheduler() {
+        return formatScheduler;
+    }
+
+    public synchronized SharpnessFilter getSharpnessFilter() {
+        return sharpnessFilter;
+    }
+
+    public synchronized DuplicateFilter getDuplicateFilter() {
+        return duplicateFilter;
+    }
+
+    public synchronized RoiTracker getRoiTracker() {
+        return roiTracker;
+    }
+
+    /**
+     * @return the hints every reader gets, including the formats actually decoded
+     */
+    public Map<DecodeHintType, Object> getHints() {
+        return Collections.unmodifiableMap(hints);
+    }
+
+    /**
+     * @return the first code found in the frame, or null
+     * @throws IllegalArgumentException if the region does not fit the frame
+     */
+    public Result decode(ScanFrame frame) {
+        FrameDecoder decoder = acquire();
+        try {
+            if (!decode(decoder, frame, false)) {
+                return null;
+            }
+            return flip(frame, decoder.getResult());
+        } finally {
+            release(decoder);
+        }
+    }
+
+    /**
+     * @return every code found in the frame, or null if there is none
+     * @throws IllegalArgumentException if the region does not fit the frame
+     */
+    public Result[] decodeMultiple(ScanFrame frame) {
+        FrameDecoder decoder = acquire();
+        try {
+            if (!decode(decoder, frame, true)) {
+                return null;
+            }
+            return flip(frame, decoder.getResults());
+        } finally {
+            release(decoder);
+        }
+    }
+
+    /**
+     * Decodes on the calling thread and reports the outcome to the callback.
+     *
+     * @param multiple whether to look for every code instead of the first one
+     */
+    public void decode(ScanFrame frame, boolean multiple, Callback callback) {
+        Result[] results = null;
+        int failReason;
+        FrameDecoder decoder = acquire();
+        try {
+            if (decode(decoder, frame, multiple)) {
+                results = multiple ? decoder.getResults() : new Result[]{decoder.getResult()};
+            }
+            failReason = decoder.getFailReason();
+        } finally {
+            release(decoder);
+        }
+        if (results != null) {
+            callback.onDecoded(frame, flip(frame, results));
+        } else {
+            callback.onFailed(frame, failReason);
+        }
+    }
+
+    /**
+     * Decodes on the executor and reports the outcome to the callback there. The frame and its
+     * data must not change until the callback ran.
+     *
+     * @param multiple whether to look for every code instead of the first one
+     */
+    public void decode(final ScanFrame frame, final boolean multiple, Executor executor,
+                       final Callback callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                decode(frame, multiple, callback);
+            }
+        });
+    }
+
+    /**
+     * Borrows a set of readers; a decode worker keeps one for its whole life.
+     */
+    synchronized FrameDecoder acquire() {
+        FrameDecoder decoder = idle.poll();
+        if (decoder == null) {
+            decoder = new FrameDecoder(hints, binarizerStrategy, formatScheduler, sharpnessFilter,
+                    duplicateFilter, roiTracker, pyramid);
+            decoder.generation = generation;
+        }
+        return decoder;
+    }
+
+    synchronized void release(FrameDecoder decoder) {
+        //设置变更前借出的解码器直接丢弃
+        if (decoder.generation == generation) {
+            idle.push(decoder);
+        }
+    }
+
+    private void invalidate() {
+        generation++;
+        idle.clear();
+    }
+
+    /**
+     * Crops the upright region out of the frame. Frames shown at 180 and 270 degrees are read
+     * as if shown at 0 and 90 degrees with the region mirrored; the readers do not mind upside
+     * down codes, and {@link #flip} turns the result points back around.
+     */
+    private static boolean decode(FrameDecoder decoder, ScanFrame frame, boolean multiple) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        int left = frame.getRoiLeft();
+        int top = frame.getRoiTop();
+        int right = frame.getRoiRight();
+        int bottom = frame.getRoiBottom();
+        int rotation = frame.getRotation();
+        if (rotation >= 180) {
+            int uprightWidth = frame.getUprightWidth();
+            int uprightHeight = frame.getUprightHeight();
+            int flippedLeft = uprightWidth - right;
+            int flippedTop = uprightHeight - bottom;
+            right = uprightWidth - left;
+            bottom = uprightHeight - top;
+            left = flippedLeft;
+            top = flippedTop;
+        }
+        boolean portrait = rotation % 180 != 0;
+        boolean rotationFree = decoder.isRotationFree();
+        byte[] data = frame.getData();
+        LuminanceSource source;
+        if (data != null) {
+            source = PreviewCrop.build(data, width, height, left, top, right, bottom, portrait,
+                    rotationFree);
+        } else {
+            //缓冲区原地读取，不复制到堆上
+            ByteBuffer buffer = frame.getBuffer();
+            if (buffer.position() != 0) {
+                buffer = buffer.slice();
+            }
+            source = PreviewCrop.build(buffer, width, height, frame.getRowStride(),
+                    frame.getPixelStride(), left, top, right, bottom, portrait, rotationFree);
+        }
+        return decoder.decode(source, rotationFree && portrait, multiple);
+    }
+
+    private static Result[] flip(ScanFrame frame, Result[] results) {
+        if (frame.getRotation() < 180) {
+            return results;
+        }
+        for (int i = 0; i < results.length; i++) {
+            results[i] = flip(frame, results[i]);
+        }
+        return results;
+    }
+
+    private static Result flip(ScanFrame frame, Result result) {
+        ResultPoint[] points = result.getResultPoints();
+        if (frame.getRotation() < 180 || points == null) {
+            return result;
+        }
+        int width = frame.getRoiRight() - frame.getRoiLeft();
+        int height = frame.getRoiBottom() - frame.getRoiTop();
+        ResultPoint[] flipped = new ResultPoint[points.length];
+        for (int i = 0; i < points.length; i++) {
+            flipped[i] = points[i] == null ? null : new ResultPoint(
+                    width - 1 - points[i].getX(), height - 1 - points[i].getY());
+        }
+        Result mapped = new Result(result.getText(), result.getRawBytes(),
+                result.getNumBits(), flipped, result.getBarcodeFormat(), result.getTimestamp());
+        mapped.putAllMetadata(result.getResultMetadata());
+        return mapped;
+    }
+}
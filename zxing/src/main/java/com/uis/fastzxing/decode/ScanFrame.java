@@ -0,0 +1,177 @@
+package com.uis.fastzxing.decode;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A YUV frame handed to a {@link ScanEngine}: the luminance plane first, as in NV21, or a
+ * luminance plane in a buffer with its strides, like the Y plane of YUV_420_888, plus how it
+ * must be rotated to look upright and the region of the upright image to decode. Buffers are
+ * read in place, direct and memory-mapped ones included. Reusable: set the fields again for
+ * the next frame.
+ */
+public final class ScanFrame {
+
+    private byte[] data;
+    private ByteBuffer buffer;
+    private int width;
+    private int height;
+    private int rowStride;
+    private int pixelStride;
+    private int rotation;
+    private boolean hasRoi;
+    private int left;
+    private int top;
+    private int right;
+    private int bottom;
+    private long timestampNanos;
+
+    /**
+     * @param data   the frame, luminance plane first
+     * @param width  width of the frame as captured
+     * @param height height of the frame as captured
+     */
+    public ScanFrame setData(byte[] data, int width, int height) {
+        this.data = data;
+        this.buffer = null;
+        this.width = width;
+        this.height = height;
+        return this;
+    }
+
+    /**
+     * @param buffer the frame from its position on, luminance plane first
+     * @param width  width of the frame as captured
+     * @param height height of the frame as captured
+     */
+    public ScanFrame setData(ByteBuffer buffer, int width, int height) {
+        return setData(buffer, width, height, width, 1);
+    }
+
+    /**
+     * @param buffer      the luminance plane from its position on
+     * @param width       width of the frame as captured
+     * @param height      height of the frame as captured
+     * @param rowStride   bytes from one row of the plane to the next
+     * @param pixelStride bytes from one pixel of the plane to the next
+     */
+    public ScanFrame setData(ByteBuffer buffer, int width, int height, int rowStride,
+                             int pixelStride) {
+        this.data = null;
+        this.buffer = buffer;
+        this.width = width;
+        this.height = height;
+        this.rowStride = rowStride;
+        this.pixelStride = pixelStride;
+        return this;
+    }
+
+    /**
+     * @param degrees clockwise rotation that makes the frame upright: 0, 90, 180 or 270
+     */
+    public ScanFrame setRotation(int degrees) {
+        if (degrees != 0 && degrees != 90 && degrees != 180 && degrees != 270) {
+            throw new IllegalArgumentException("Rotation must be a multiple of 90: " + degrees);
+        }
+        this.rotation = degrees;
+        return this;
+    }
+
+    /**
+     * Limits decoding to a region of the upright frame. Result points are relative to it.
+     */
+    public ScanFrame setRoi(int left, int top, int right, int bottom) {
+        this.hasRoi = true;
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+        return this;
+    }
+
+    /**
+     * Decodes the whole upright frame again.
+     */
+    public ScanFrame clearRoi() {
+        this.hasRoi = false;
+        return this;
+    }
+
+    /**
+     * @param timestampNanos when the frame was captured, for the caller's bookkeeping
+     */
+    public ScanFrame setTimestamp(long timestampNanos) {
+        this.timestampNanos = timestampNanos;
+        return this;
+    }
+
+    /**
+     * @return the frame array, or null if the frame is in a {@link #getBuffer() buffer}
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return bytes from one row of the {@link #getBuffer() buffer} to the next
+     */
+    public int getRowStride() {
+        return rowStride;
+    }
+
+    /**
+     * @return bytes from one pixel of the {@link #getBuffer() buffer} to the next
+     */
+    public int getPixelStride() {
+        return pixelStride;
+    }
+
+    public int getRotation() {
+        return rotation;
+    }
+
+    public long getTimestamp() {
+        return timestampNanos;
+    }
+
+    /**
+     * @return width of the frame once upright
+     */
+    public int getUprightWidth() {
+        return rotation % 180 == 0 ? width : height;
+    }
+
+    /**
+     * @return height of the frame once upright
+     */
+    public int getUprightHeight() {
+        return rotation % 180 == 0 ? height : width;
+    }
+
+    public int getRoiLeft() {
+        return hasRoi ? left : 0;
+    }
+
+    public int getRoiTop() {
+        return hasRoi ? top : 0;
+    }
+
+    public int getRoiRight() {
+        return hasRoi ? right : getUprightWidth();
+    }
+
+    public int getRoiBottom() {
+        return hasRoi ? bottom : getUprightHeight();
+    }
+}
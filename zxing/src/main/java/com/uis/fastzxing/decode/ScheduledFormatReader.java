@@ -0,0 +1,183 @@
+package com.uis.fastzxing.decode;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.Reader;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.aztec.AztecReader;
+import com.google.zxing.datamatrix.DataMatrixReader;
+import com.google.zxing.maxicode.MaxiCodeReader;
+import com.google.zxing.oned.MultiFormatOneDReader;
+import com.google.zxing.pdf417.PDF417Reader;
+import com.google.zxing.qrcode.QRCodeReader;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A replacement for {@link com.google.zxing.MultiFormatReader} that only runs the readers a
+ * {@link FormatScheduler} planned for the current frame, in the planned order. The 1D formats of
+ * a plan share one {@link MultiFormatOneDReader} so each row is still scanned once; it runs at
+ * the position of the most likely 1D format. One instance per decode worker, like the reader it
+ * replaces.
+ */
+final class ScheduledFormatReader implements Reader {
+
+    private final FormatScheduler scheduler;
+    private final Map<DecodeHintType, Object> hints;
+    private final Collection<BarcodeFormat> allowed;
+    private final BarcodeFormat[] order;
+    private int count;
+    private BarcodeFormat skipped;
+    private final Map<BarcodeFormat, Reader> twoDReaders = new EnumMap<>(BarcodeFormat.class);
+    private final Map<Set<BarcodeFormat>, Reader> oneDReaders = new HashMap<>();
+    private final Set<BarcodeFormat> oneDFormats = EnumSet.noneOf(BarcodeFormat.class);
+
+    @SuppressWarnings("unchecked")
+    ScheduledFormatReader(FormatScheduler scheduler, Map<DecodeHintType, Object> hints) {
+        this.scheduler = scheduler;
+        this.hints = hints;
+        Collection<BarcodeFormat> formats =
+                (Collection<BarcodeFormat>) hints.get(DecodeHintType.POSSIBLE_FORMATS);
+        allowed = formats == null || formats.isEmpty()
+                ? EnumSet.allOf(BarcodeFormat.class) : EnumSet.copyOf(formats);
+        order = new BarcodeFormat[allowed.size()];
+    }
+
+    /**
+     * Plans the formats for the next frame; every {@link #decode} until the next call uses the
+     * same plan, so a second binarizer pass tries the same readers.
+     */
+    void nextFrame() {
+        count = scheduler.schedule(allowed, order);
+        oneDFormats.clear();
+        for (int i = 0; i < count; i++) {
+            if (DecodeFormatManager.ONE_D_FORMATS.contains(order[i])) {
+                oneDFormats.add(order[i]);
+            }
+        }
+    }
+
+    /**
+     * @return whether the current plan tries the format
+     */
+    boolean isScheduled(BarcodeFormat format) {
+        for (int i = 0; i < count; i++) {
+            if (order[i] == format) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Leaves a format of the current plan out of {@link #decode} until the next call, e.g. one
+     * another reader already looked for in the same bitmap.
+     *
+     * @param format the format to leave out, or null to try the whole plan again
+     */
+    void skip(BarcodeFormat format) {
+        skipped = format;
+    }
+
+    /**
+     * Counts a hit found by a reader outside this one towards the plan of later frames.
+     */
+    void recordHit(BarcodeFormat format) {
+        scheduler.recordHit(format);
+    }
+
+    @Override
+    public Result decode(BinaryBitmap image) throws NotFoundException {
+        boolean oneDTried = false;
+        for (int i = 0; i < count; i++) {
+            if (order[i] == skipped) {
+                continue;
+            }
+            Reader reader;
+            if (oneDFormats.contains(order[i])) {
+                if (oneDTried) {
+                    continue;
+                }
+                oneDTried = true;
+                reader = getOneDReader();
+            } else {
+                reader = getTwoDReader(order[i]);
+            }
+            if (reader == null) {
+                continue;
+            }
+            try {
+                Result result = reader.decode(image, hints);
+                scheduler.recordHit(result.getBarcodeFormat());
+                return result;
+            } catch (ReaderException re) {
+                // continue
+            }
+        }
+        throw NotFoundException.getNotFoundInstance();
+    }
+
+    @Override
+    public Result decode(BinaryBitmap image, Map<DecodeHintType, ?> hints)
+            throws NotFoundException {
+        return decode(image);
+    }
+
+    @Override
+    public void reset() {
+        for (Reader reader : twoDReaders.values()) {
+            reader.reset();
+        }
+        for (Reader reader : oneDReaders.values()) {
+            reader.reset();
+        }
+    }
+
+    private Reader getOneDReader() {
+        Reader reader = oneDReaders.get(oneDFormats);
+        if (reader == null) {
+            Set<BarcodeFormat> formats = EnumSet.copyOf(oneDFormats);
+            Map<DecodeHintType, Object> readerHints = new EnumMap<>(DecodeHintType.class);
+            readerHints.putAll(hints);
+            readerHints.put(DecodeHintType.POSSIBLE_FORMATS, formats);
+            reader = new MultiFormatOneDReader(readerHints);
+            oneDReaders.put(formats, reader);
+        }
+        return reader;
+    }
+
+    private Reader getTwoDReader(BarcodeFormat format) {
+        Reader reader = twoDReaders.get(format);
+        if (reader == null) {
+            switch (format) {
+                case QR_CODE:
+                    reader = new QRCodeReader();
+                    break;
+                case DATA_MATRIX:
+                    reader = new DataMatrixReader();
+                    break;
+                case AZTEC:
+                    reader = new AztecReader();
+                    break;
+                case PDF_417:
+                    reader = new PDF417Reader();
+                    break;
+                case MAXICODE:
+                    reader = new MaxiCodeReader();
+                    break;
+                default:
+                    return null;
+            }
+            twoDReaders.put(format, reader);
+        }
+        return reader;
+    }
+}
@@ -0,0 +1,76 @@
+package com.uis.fastzxing.decode;
+
+import java.util.Locale;
+
+/**
+ * Rejects frames too blurry to be worth decoding, before any reader runs. The threshold adapts
+ * to the scene: a frame passes when its {@link FocusMeter focus measure} reaches a fraction of
+ * the best recent measure, and that best value decays every frame, so a scene that never gets
+ * sharper is decoded again after a few frames. Instances are thread safe and meant to be shared
+ * by all decode workers of a scan session.
+ */
+public final class SharpnessFilter {
+
+    /**
+     * Share of the recent peak a frame needs to be decoded.
+     */
+    private static final float ACCEPT_RATIO = 0.5f;
+    /**
+     * Kept share of the peak per frame; about seven blurry frames in a row re-arm the filter.
+     */
+    private static final float PEAK_DECAY = 0.9f;
+
+    private boolean enabled = true;
+    private float peak;
+    private long accepted;
+    private long rejected;
+
+    public synchronized void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param focusMeasure the frame's focus measure
+     * @return whether the frame should be decoded
+     */
+    synchronized boolean accept(float focusMeasure) {
+        peak = Math.max(focusMeasure, peak * PEAK_DECAY);
+        if (focusMeasure >= peak * ACCEPT_RATIO) {
+            accepted++;
+            return true;
+        }
+        rejected++;
+        return false;
+    }
+
+    public synchronized long getAccepted() {
+        return accepted;
+    }
+
+    /**
+     * @return frames skipped as blurry
+     */
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * Forgets the learned threshold and statistics.
+     */
+    public synchronized void reset() {
+        peak = 0f;
+        accepted = 0;
+        rejected = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long total = accepted + rejected;
+        return String.format(Locale.US, "SharpnessFilter{%d/%d frames rejected as blurry (%.1f%%)}",
+                rejected, total, total == 0 ? 0f : 100f * rejected / total);
+    }
+}
@@ -0,0 +1,51 @@
+package com.uis.fastzxing.decode;
+
+import android.graphics.Bitmap;
+
+import com.google.zxing.LuminanceSource;
+
+/**
+ * Renders greyscale result thumbnails at half resolution into one mutable bitmap that is reused
+ * for every result of the same size, so showing a thumbnail costs a single pass over the frame
+ * and no allocation. A returned bitmap is overwritten by the next render; copy it to keep it.
+ * Not thread safe: use it from the UI thread.
+ */
+public final class ThumbnailRenderer {
+
+    private static final int SCALE_FACTOR = 2;
+
+    private Bitmap bitmap;
+    private int[] pixels;
+    private byte[] row;
+    private float scaleFactor = 1.0f;
+
+    public Bitmap render(LuminanceSource source) {
+        int width = source.getWidth() / SCALE_FACTOR;
+        int height = source.getHeight() / SCALE_FACTOR;
+        if (bitmap == null || bitmap.isRecycled()
+                || bitmap.getWidth() != width || bitmap.getHeight() != height) {
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+        if (pixels == null || pixels.length < width * height) {
+            pixels = new int[width * height];
+        }
+        for (int y = 0; y < height; y++) {
+            row = source.getRow(y * SCALE_FACTOR, row);
+            int outputOffset = y * width;
+            for (int x = 0; x < width; x++) {
+                int grey = row[x * SCALE_FACTOR] & 0xff;
+                pixels[outputOffset + x] = 0xFF000000 | (grey * 0x00010101);
+            }
+        }
+        bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+        scaleFactor = (float) width / source.getWidth();
+        return bitmap;
+    }
+
+    /**
+     * @return thumbnail pixels per frame pixel of the last render
+     */
+    public float getScaleFactor() {
+        return scaleFactor;
+    }
+}